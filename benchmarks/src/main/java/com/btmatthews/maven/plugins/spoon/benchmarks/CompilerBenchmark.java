@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.benchmarks;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import spoon.reflect.Factory;
+import spoon.support.builder.CtFile;
+import spoon.support.builder.JDTCompiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link JDTCompiler#compileSrc(Factory, List)} which reads, parses and resolves the source files and then
+ * builds the Spoon model, over source trees of increasing size.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CompilerBenchmark {
+
+    /**
+     * The number of classes in the source tree.
+     */
+    @Param({"10", "100", "1000"})
+    public int classes;
+    /**
+     * The number of threads the compiler uses to read and parse source files.
+     */
+    @Param({"1", "4"})
+    public int threads;
+    /**
+     * The root directory of the source tree.
+     */
+    private File sourceDirectory;
+    /**
+     * The source files.
+     */
+    private List<CtFile> files;
+
+    /**
+     * Generate the source tree.
+     *
+     * @throws IOException If there was a problem writing the source tree.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sourceDirectory = Corpus.generate(classes);
+        files = Models.getFiles(sourceDirectory);
+    }
+
+    /**
+     * Delete the source tree.
+     *
+     * @throws IOException If there was a problem deleting the source tree.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(sourceDirectory);
+    }
+
+    /**
+     * Compile the source tree and build the model.
+     *
+     * @return The factory that owns the model.
+     * @throws Exception If there was a problem compiling the source tree.
+     */
+    @Benchmark
+    public Factory compileSrc() throws Exception {
+        final Factory factory = Models.createFactory(sourceDirectory, threads);
+        new JDTCompiler().compileSrc(factory, files);
+        return factory;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates synthetic source trees used as the input to the benchmarks. The generated classes resemble typical
+ * application code: they have Javadoc comments, fields of generic collection types, accessors, methods with loops,
+ * branches, switch statements, exception handlers and anonymous inner classes, a nested class, and references to
+ * classes in other packages. The same seed always generates the same source tree.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.1.0
+ */
+public final class Corpus {
+
+    /**
+     * The number of classes in each package.
+     */
+    private static final int CLASSES_PER_PACKAGE = 20;
+    /**
+     * The seed used to generate the source trees.
+     */
+    private static final long SEED = 20131201L;
+
+    /**
+     * Prevent instantiation.
+     */
+    private Corpus() {
+    }
+
+    /**
+     * Generate a source tree in a new temporary directory.
+     *
+     * @param classes The number of classes to generate.
+     * @return The root directory of the source tree.
+     * @throws IOException If there was a problem writing the source files.
+     */
+    public static File generate(final int classes) throws IOException {
+        final File directory = File.createTempFile("corpus", "");
+        directory.delete();
+        directory.mkdirs();
+        generate(directory, classes);
+        return directory;
+    }
+
+    /**
+     * Generate a source tree.
+     *
+     * @param directory The root directory of the source tree.
+     * @param classes   The number of classes to generate.
+     * @throws IOException If there was a problem writing the source files.
+     */
+    public static void generate(final File directory, final int classes) throws IOException {
+        final Random random = new Random(SEED);
+        final int packages = (classes + CLASSES_PER_PACKAGE - 1) / CLASSES_PER_PACKAGE;
+        for (int p = 0; p < packages; p++) {
+            final File packageDirectory = new File(directory, "corpus/pkg" + p);
+            packageDirectory.mkdirs();
+            write(new File(packageDirectory, "AbstractEntity.java"), generateBase(p));
+            for (int c = p * CLASSES_PER_PACKAGE; c < Math.min(classes, (p + 1) * CLASSES_PER_PACKAGE); c++) {
+                write(new File(packageDirectory, "Type" + c + ".java"), generateClass(random, p, c));
+            }
+        }
+    }
+
+    /**
+     * Generate the abstract base class of a package.
+     *
+     * @param pkg The package number.
+     * @return The source code.
+     */
+    private static String generateBase(final int pkg) {
+        final StringBuilder source = new StringBuilder();
+        source.append("package corpus.pkg").append(pkg).append(";\n\n");
+        source.append("/**\n * The base class of the entities in this package.\n */\n");
+        source.append("public abstract class AbstractEntity {\n\n");
+        source.append("    /**\n     * The entity identifier.\n     */\n");
+        source.append("    private long id;\n\n");
+        source.append("    public long getId() {\n        return id;\n    }\n\n");
+        source.append("    public void setId(final long id) {\n        this.id = id;\n    }\n\n");
+        source.append("    public abstract String describe();\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Generate a class.
+     *
+     * @param random Used to vary the shape of the class.
+     * @param pkg    The package number.
+     * @param index  The class number.
+     * @return The source code.
+     */
+    private static String generateClass(final Random random, final int pkg, final int index) {
+        final String name = "Type" + index;
+        final int peer = index == 0 ? 0 : random.nextInt(index);
+        final int peerPackage = peer / CLASSES_PER_PACKAGE;
+        final StringBuilder source = new StringBuilder();
+        source.append("package corpus.pkg").append(pkg).append(";\n\n");
+        source.append("import java.util.ArrayList;\n");
+        source.append("import java.util.Collections;\n");
+        source.append("import java.util.Comparator;\n");
+        source.append("import java.util.HashMap;\n");
+        source.append("import java.util.List;\n");
+        source.append("import java.util.Map;\n");
+        if (peerPackage != pkg) {
+            source.append("import corpus.pkg").append(peerPackage).append(".Type").append(peer).append(";\n");
+        }
+        source.append('\n');
+        source.append("/**\n * Generated entity number ").append(index).append(".\n */\n");
+        source.append("public class ").append(name).append(" extends AbstractEntity implements Comparable<")
+                .append(name).append("> {\n\n");
+        source.append("    private static final int LIMIT = ").append(10 + random.nextInt(90)).append(";\n\n");
+        source.append("    private int count;\n\n");
+        source.append("    private String name;\n\n");
+        source.append("    private final List<String> tags = new ArrayList<String>();\n\n");
+        source.append("    private final Map<String, Integer> index = new HashMap<String, Integer>();\n\n");
+        source.append("    private Type").append(peer).append(" peer;\n\n");
+        source.append("    public ").append(name).append("(final String name) {\n");
+        source.append("        this.name = name;\n    }\n\n");
+        appendAccessors(source, "int", "count");
+        appendAccessors(source, "String", "name");
+        appendAccessors(source, "Type" + peer, "peer");
+        final int methods = 2 + random.nextInt(6);
+        for (int m = 0; m < methods; m++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    appendLoopMethod(source, m);
+                    break;
+                case 1:
+                    appendSwitchMethod(source, m);
+                    break;
+                case 2:
+                    appendParseMethod(source, m);
+                    break;
+                default:
+                    appendIndexMethod(source, m);
+                    break;
+            }
+        }
+        source.append("    public void sortTags() {\n");
+        source.append("        Collections.sort(tags, new Comparator<String>() {\n");
+        source.append("            public int compare(final String left, final String right) {\n");
+        source.append("                return left.length() == right.length() ? left.compareTo(right)\n");
+        source.append("                        : left.length() - right.length();\n");
+        source.append("            }\n        });\n    }\n\n");
+        source.append("    @Override\n    public String describe() {\n");
+        source.append("        final StringBuilder builder = new StringBuilder(name);\n");
+        source.append("        builder.append('[').append(count).append(']');\n");
+        source.append("        for (final String tag : tags) {\n");
+        source.append("            builder.append(' ').append(tag);\n        }\n");
+        source.append("        if (peer != null) {\n");
+        source.append("            builder.append(\" -> \").append(peer.getName());\n        }\n");
+        source.append("        return builder.toString();\n    }\n\n");
+        source.append("    public int compareTo(final ").append(name).append(" other) {\n");
+        source.append("        return count < other.count ? -1 : count == other.count ? 0 : 1;\n    }\n\n");
+        source.append("    /**\n     * A tagged value.\n     */\n");
+        source.append("    public static class Entry {\n\n");
+        source.append("        private final String key;\n\n");
+        source.append("        private final int value;\n\n");
+        source.append("        public Entry(final String key, final int value) {\n");
+        source.append("            this.key = key;\n            this.value = value;\n        }\n\n");
+        source.append("        public String getKey() {\n            return key;\n        }\n\n");
+        source.append("        public int getValue() {\n            return value;\n        }\n    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Append the getter and setter for a field.
+     *
+     * @param source The source code.
+     * @param type   The field type.
+     * @param field  The field name.
+     */
+    private static void appendAccessors(final StringBuilder source, final String type, final String field) {
+        final String property = Character.toUpperCase(field.charAt(0)) + field.substring(1);
+        source.append("    /**\n     * Get the ").append(field).append(".\n     *\n     * @return The ")
+                .append(field).append(".\n     */\n");
+        source.append("    public ").append(type).append(" get").append(property).append("() {\n");
+        source.append("        return ").append(field).append(";\n    }\n\n");
+        source.append("    public void set").append(property).append("(final ").append(type).append(' ')
+                .append(field).append(") {\n");
+        source.append("        this.").append(field).append(" = ").append(field).append(";\n    }\n\n");
+    }
+
+    /**
+     * Append a method containing loops and branches.
+     *
+     * @param source The source code.
+     * @param number The method number.
+     */
+    private static void appendLoopMethod(final StringBuilder source, final int number) {
+        source.append("    public int compute").append(number).append("(final int n) {\n");
+        source.append("        int total = 0;\n");
+        source.append("        for (int i = 0; i < n && i < LIMIT; i++) {\n");
+        source.append("            if (i % 3 == 0) {\n                total += i * count;\n");
+        source.append("            } else if (i % 3 == 1) {\n                total -= i;\n");
+        source.append("            } else {\n                total ^= i << 1;\n            }\n        }\n");
+        source.append("        while (total > LIMIT) {\n            total /= 2;\n        }\n");
+        source.append("        return total;\n    }\n\n");
+    }
+
+    /**
+     * Append a method containing a switch statement.
+     *
+     * @param source The source code.
+     * @param number The method number.
+     */
+    private static void appendSwitchMethod(final StringBuilder source, final int number) {
+        source.append("    public String classify").append(number).append("(final int code) {\n");
+        source.append("        switch (code) {\n");
+        source.append("            case 0:\n                return \"none\";\n");
+        source.append("            case 1:\n            case 2:\n                return \"few\" + code;\n");
+        source.append("            default:\n                return code > LIMIT ? \"many\" : name;\n");
+        source.append("        }\n    }\n\n");
+    }
+
+    /**
+     * Append a method containing an exception handler.
+     *
+     * @param source The source code.
+     * @param number The method number.
+     */
+    private static void appendParseMethod(final StringBuilder source, final int number) {
+        source.append("    public Entry parse").append(number).append("(final String text) {\n");
+        source.append("        final int separator = text.indexOf('=');\n");
+        source.append("        if (separator < 0) {\n");
+        source.append("            throw new IllegalArgumentException(\"Missing separator: \" + text);\n");
+        source.append("        }\n");
+        source.append("        try {\n");
+        source.append("            return new Entry(text.substring(0, separator).trim(),\n");
+        source.append("                    Integer.parseInt(text.substring(separator + 1).trim()));\n");
+        source.append("        } catch (final NumberFormatException e) {\n");
+        source.append("            tags.add(text);\n");
+        source.append("            return null;\n        }\n    }\n\n");
+    }
+
+    /**
+     * Append a method that works with generic collections.
+     *
+     * @param source The source code.
+     * @param number The method number.
+     */
+    private static void appendIndexMethod(final StringBuilder source, final int number) {
+        source.append("    public List<Entry> index").append(number).append("(final List<String> values) {\n");
+        source.append("        final List<Entry> entries = new ArrayList<Entry>();\n");
+        source.append("        for (final String value : values) {\n");
+        source.append("            final Integer existing = index.get(value);\n");
+        source.append("            final int next = existing == null ? 1 : existing + 1;\n");
+        source.append("            index.put(value, next);\n");
+        source.append("            entries.add(new Entry(value, next));\n        }\n");
+        source.append("        return entries;\n    }\n\n");
+    }
+
+    /**
+     * Write a source file.
+     *
+     * @param file   The source file.
+     * @param source The source code.
+     * @throws IOException If there was a problem writing the file.
+     */
+    private static void write(final File file, final String source) throws IOException {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.benchmarks;
+
+import com.btmatthews.maven.plugins.spoon.processors.GroovyProcessor;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import spoon.processing.AbstractProcessor;
+import spoon.reflect.Factory;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of applying a {@link GroovyProcessor} to a single element compared with an equivalent
+ * processor written in Java. The script marks accessor methods with a Javadoc comment.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GroovyProcessorBenchmark {
+
+    /**
+     * The number of classes in the source tree.
+     */
+    private static final int CLASSES = 100;
+    /**
+     * The processor script.
+     */
+    private static final String SCRIPT = "import spoon.reflect.declaration.CtMethod\n"
+            + "\n"
+            + "def processes() { CtMethod }\n"
+            + "\n"
+            + "def method = (CtMethod) element\n"
+            + "if (method.simpleName.startsWith('get')) {\n"
+            + "    method.docComment = 'Accessor'\n"
+            + "}\n";
+    /**
+     * If {@code true} the script is compiled with {@code @CompileStatic}.
+     */
+    @Param({"false", "true"})
+    public boolean compileStatic;
+    /**
+     * The root directory of the source tree.
+     */
+    private File sourceDirectory;
+    /**
+     * The processor script file.
+     */
+    private File scriptFile;
+    /**
+     * The methods in the model.
+     */
+    private List<CtMethod<?>> methods;
+    /**
+     * The Groovy processor.
+     */
+    private GroovyProcessor<CtElement> groovyProcessor;
+    /**
+     * The equivalent Java processor.
+     */
+    private AccessorProcessor javaProcessor;
+    /**
+     * The index of the next method to process.
+     */
+    private int next;
+
+    /**
+     * Build the model and compile the script.
+     *
+     * @throws Exception If there was a problem building the model or compiling the script.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        sourceDirectory = Corpus.generate(CLASSES);
+        final Factory factory = Models.build(sourceDirectory);
+        methods = Models.getMethods(factory);
+        scriptFile = File.createTempFile("accessor", ".groovy");
+        FileUtils.fileWrite(scriptFile.getAbsolutePath(), "UTF-8", SCRIPT);
+        groovyProcessor = new GroovyProcessor<CtElement>(scriptFile, compileStatic);
+        groovyProcessor.setFactory(factory);
+        javaProcessor = new AccessorProcessor();
+        javaProcessor.setFactory(factory);
+    }
+
+    /**
+     * Delete the source tree and script file.
+     *
+     * @throws IOException If there was a problem deleting the files.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(sourceDirectory);
+        scriptFile.delete();
+    }
+
+    /**
+     * Apply the Groovy processor to the next method.
+     */
+    @Benchmark
+    public void groovy() {
+        groovyProcessor.process(nextMethod());
+    }
+
+    /**
+     * Apply the Java processor to the next method.
+     */
+    @Benchmark
+    public void java() {
+        javaProcessor.process(nextMethod());
+    }
+
+    /**
+     * Get the next method cycling through all the methods in the model.
+     *
+     * @return The method.
+     */
+    private CtMethod<?> nextMethod() {
+        final CtMethod<?> method = methods.get(next);
+        next = (next + 1) % methods.size();
+        return method;
+    }
+
+    /**
+     * A Java processor that is equivalent to the script.
+     */
+    public static class AccessorProcessor extends AbstractProcessor<CtMethod<?>> {
+
+        /**
+         * Mark accessor methods with a Javadoc comment.
+         *
+         * @param method The method.
+         */
+        public void process(final CtMethod<?> method) {
+            if (method.getSimpleName().startsWith("get")) {
+                method.setDocComment("Accessor");
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.benchmarks;
+
+import com.btmatthews.maven.plugins.spoon.MavenEnvironment;
+import spoon.processing.AbstractProcessor;
+import spoon.processing.Builder;
+import spoon.reflect.Factory;
+import spoon.reflect.declaration.CtMethod;
+import spoon.support.DefaultCoreFactory;
+import spoon.support.QueueProcessingManager;
+import spoon.support.builder.CtFile;
+import spoon.support.builder.support.FileSystemFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Helper methods used by the benchmarks to create and build Spoon models in the same way as the plugin.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.1.0
+ */
+public final class Models {
+
+    /**
+     * The source compliance level of the generated source trees.
+     */
+    private static final int COMPLIANCE_LEVEL = 6;
+
+    /**
+     * Prevent instantiation.
+     */
+    private Models() {
+    }
+
+    /**
+     * Create a factory with an environment configured in the same way as the plugin.
+     *
+     * @param sourceDirectory The root directory of the source tree.
+     * @param compilerThreads The number of threads the compiler uses to read and parse source files.
+     * @return The factory.
+     */
+    public static Factory createFactory(final File sourceDirectory, final int compilerThreads) {
+        final MavenEnvironment env = new MavenEnvironment();
+        env.setVerbose(false);
+        env.setDebug(false);
+        env.setComplianceLevel(COMPLIANCE_LEVEL);
+        env.setCompilerThreads(compilerThreads);
+        env.setClasspath(Collections.<String>emptyList());
+        env.addSourcePathFolder(sourceDirectory);
+        return new Factory(new DefaultCoreFactory(), env);
+    }
+
+    /**
+     * Build the model of a source tree.
+     *
+     * @param sourceDirectory The root directory of the source tree.
+     * @return The factory that owns the model.
+     * @throws Exception If there was a problem building the model.
+     */
+    public static Factory build(final File sourceDirectory) throws Exception {
+        final Factory factory = createFactory(sourceDirectory, 1);
+        final Builder builder = factory.getBuilder();
+        builder.addInputSource(sourceDirectory);
+        builder.build();
+        return factory;
+    }
+
+    /**
+     * Get the Java source files of a source tree.
+     *
+     * @param sourceDirectory The root directory of the source tree.
+     * @return The source files.
+     * @throws IOException If there was a problem reading the source tree.
+     */
+    public static List<CtFile> getFiles(final File sourceDirectory) throws IOException {
+        return new FileSystemFolder(sourceDirectory).getAllJavaFiles();
+    }
+
+    /**
+     * Get all the methods in a model.
+     *
+     * @param factory The factory that owns the model.
+     * @return The methods.
+     */
+    public static List<CtMethod<?>> getMethods(final Factory factory) {
+        final List<CtMethod<?>> methods = new ArrayList<CtMethod<?>>();
+        final QueueProcessingManager processing = new QueueProcessingManager(factory);
+        processing.addProcessor(new AbstractProcessor<CtMethod<?>>() {
+            public void process(final CtMethod<?> method) {
+                methods.add(method);
+            }
+        });
+        processing.process();
+        return methods;
+    }
+}
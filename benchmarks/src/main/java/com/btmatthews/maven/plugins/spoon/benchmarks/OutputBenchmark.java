@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.benchmarks;
+
+import com.btmatthews.maven.plugins.spoon.Types;
+import com.btmatthews.maven.plugins.spoon.processing.JavaOutputWriter;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import spoon.reflect.Factory;
+import spoon.reflect.declaration.CtSimpleType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures pretty-printing the model and writing it to the output directory with the {@link JavaOutputWriter}.
+ * In {@code changed} mode the output directory is emptied before each invocation so every file is written. In
+ * {@code unchanged} mode the output directory already holds the same contents so every file is skipped.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class OutputBenchmark {
+
+    /**
+     * The number of classes in the source tree.
+     */
+    @Param({"100", "1000"})
+    public int classes;
+    /**
+     * The number of threads used to pretty-print the types.
+     */
+    @Param({"1", "4"})
+    public int threads;
+    /**
+     * Either {@code changed} or {@code unchanged}.
+     */
+    @Param({"changed", "unchanged"})
+    public String mode;
+    /**
+     * The root directory of the source tree.
+     */
+    private File sourceDirectory;
+    /**
+     * The output directory.
+     */
+    private File outputDirectory;
+    /**
+     * The factory that owns the model.
+     */
+    private Factory factory;
+    /**
+     * The top-level types in the model.
+     */
+    private List<CtSimpleType<?>> types;
+
+    /**
+     * Generate the source tree, build the model and write it once.
+     *
+     * @throws Exception If there was a problem building or writing the model.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        sourceDirectory = Corpus.generate(classes);
+        outputDirectory = File.createTempFile("spooned", "");
+        outputDirectory.delete();
+        factory = Models.build(sourceDirectory);
+        types = Types.getTopLevelTypes(factory);
+        write();
+    }
+
+    /**
+     * Empty the output directory in {@code changed} mode.
+     *
+     * @throws IOException If there was a problem deleting the output directory.
+     */
+    @Setup(Level.Invocation)
+    public void clean() throws IOException {
+        if ("changed".equals(mode)) {
+            FileUtils.deleteDirectory(outputDirectory);
+        }
+    }
+
+    /**
+     * Delete the source tree and output directory.
+     *
+     * @throws IOException If there was a problem deleting the directories.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(sourceDirectory);
+        FileUtils.deleteDirectory(outputDirectory);
+    }
+
+    /**
+     * Write the model to the output directory.
+     *
+     * @return The number of files written.
+     */
+    @Benchmark
+    public int write() {
+        final JavaOutputWriter writer = new JavaOutputWriter(factory.getEnvironment(), outputDirectory, "UTF-8",
+                threads);
+        writer.writeAll(types);
+        return writer.getWrittenCount();
+    }
+}
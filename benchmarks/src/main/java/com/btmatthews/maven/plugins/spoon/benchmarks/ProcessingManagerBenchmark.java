@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.benchmarks;
+
+import com.btmatthews.maven.plugins.spoon.processing.ParallelProcessingManager;
+import com.btmatthews.maven.plugins.spoon.processing.ReadOnly;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import spoon.processing.AbstractProcessor;
+import spoon.processing.ProcessingManager;
+import spoon.reflect.Factory;
+import spoon.reflect.declaration.CtElement;
+import spoon.support.QueueProcessingManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the overhead of dispatching every element of the model to a processor that does nothing, using the
+ * standard {@link QueueProcessingManager} and the plugin's {@link ParallelProcessingManager}.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProcessingManagerBenchmark {
+
+    /**
+     * The number of classes in the source tree.
+     */
+    @Param({"100", "1000"})
+    public int classes;
+    /**
+     * The processing manager: {@code queue} for the {@link QueueProcessingManager} or {@code parallel-N} for the
+     * {@link ParallelProcessingManager} with {@code N} threads.
+     */
+    @Param({"queue", "parallel-1", "parallel-4"})
+    public String manager;
+    /**
+     * The root directory of the source tree.
+     */
+    private File sourceDirectory;
+    /**
+     * The factory that owns the model.
+     */
+    private Factory factory;
+
+    /**
+     * Generate the source tree and build the model.
+     *
+     * @throws Exception If there was a problem building the model.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        sourceDirectory = Corpus.generate(classes);
+        factory = Models.build(sourceDirectory);
+    }
+
+    /**
+     * Delete the source tree.
+     *
+     * @throws IOException If there was a problem deleting the source tree.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(sourceDirectory);
+    }
+
+    /**
+     * Apply a processor that does nothing to every element of the model.
+     *
+     * @return The number of elements dispatched to the processor.
+     */
+    @Benchmark
+    public int dispatch() {
+        final ProcessingManager processing;
+        if (manager.startsWith("parallel-")) {
+            processing = new ParallelProcessingManager(factory,
+                    Integer.parseInt(manager.substring("parallel-".length())));
+        } else {
+            processing = new QueueProcessingManager(factory);
+        }
+        final NoopProcessor processor = new NoopProcessor();
+        processing.addProcessor(processor);
+        processing.process();
+        return processor.count.get();
+    }
+
+    /**
+     * A processor that counts the elements it is applied to.
+     */
+    @ReadOnly
+    public static class NoopProcessor extends AbstractProcessor<CtElement> {
+
+        /**
+         * The number of elements the processor has been applied to.
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * Count the element.
+         *
+         * @param element The element.
+         */
+        public void process(final CtElement element) {
+            count.incrementAndGet();
+        }
+    }
+}
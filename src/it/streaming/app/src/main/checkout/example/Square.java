@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Square implements Shape {
+    private final double side;
+
+    public Square(final double side) {
+        this.side = side;
+    }
+
+    public double getArea() {
+        return side * side;
+    }
+
+    public static List<Shape> tile(final int count) {
+        final List<Shape> tiles = new ArrayList<Shape>();
+        for (int i = 0; i < count; i++) {
+            tiles.add(new Square(1));
+        }
+        return tiles;
+    }
+
+    public static class Unit extends Square {
+        public Unit() {
+            super(1);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package example.processor;
+
+import com.btmatthews.maven.plugins.spoon.processing.ReadOnly;
+import spoon.processing.AbstractProcessor;
+import spoon.reflect.declaration.CtMethod;
+
+/**
+ * A read-only processor so that the processed types can be streamed to the output directory.
+ */
+@ReadOnly
+public class MethodProcessor extends AbstractProcessor<CtMethod<?>> {
+
+    public void process(final CtMethod<?> element) {
+    }
+}
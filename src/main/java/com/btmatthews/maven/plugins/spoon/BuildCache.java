@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content-addressed cache of spooned output. Each entry is a copy of the output directory stored in a
+ * sub-directory of the cache directory named after the cache key. The cache directory can be on a shared mount so
+ * that entries are shared between checkouts and build agents.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class BuildCache {
+
+    /**
+     * The name of the file holding the entry's metadata. It is written last so an entry without it is incomplete.
+     */
+    private static final String METADATA_FILE = "cache-entry.properties";
+    /**
+     * The name of the sub-directory of the entry that holds the output files.
+     */
+    private static final String OUTPUT_DIRECTORY = "output";
+    /**
+     * The metadata property recording how long it took to generate the output.
+     */
+    private static final String DURATION_KEY = "duration";
+    /**
+     * The number of cache hits during this build session.
+     */
+    private static final AtomicInteger HITS = new AtomicInteger();
+    /**
+     * The number of cache misses during this build session.
+     */
+    private static final AtomicInteger MISSES = new AtomicInteger();
+    /**
+     * The total time saved by cache hits during this build session.
+     */
+    private static final AtomicLong TIME_SAVED = new AtomicLong();
+    /**
+     * The cache directory.
+     */
+    private final File cacheDirectory;
+    /**
+     * Used to log cache hits and misses.
+     */
+    private final Log log;
+
+    /**
+     * Initialise the build cache.
+     *
+     * @param cacheDirectory The cache directory.
+     * @param log            Used to log cache hits and misses.
+     */
+    public BuildCache(final File cacheDirectory, final Log log) {
+        this.cacheDirectory = cacheDirectory;
+        this.log = log;
+    }
+
+    /**
+     * Restore the output directory from the cache. The output directory is emptied first so that it only contains
+     * the cached output.
+     *
+     * @param key             The cache key.
+     * @param outputDirectory The output directory.
+     * @return {@code true} if the output directory was restored from the cache or {@code false} if there was no
+     *         entry for the cache key.
+     * @throws IOException If there was a problem copying the cached output.
+     */
+    public boolean restore(final String key, final File outputDirectory) throws IOException {
+        final File entry = new File(cacheDirectory, key);
+        final File metadataFile = new File(entry, METADATA_FILE);
+        if (!metadataFile.isFile()) {
+            MISSES.incrementAndGet();
+            log.info("Build cache miss: " + key);
+            return false;
+        }
+        final Properties metadata = new Properties();
+        final InputStream in = new FileInputStream(metadataFile);
+        try {
+            metadata.load(in);
+        } finally {
+            in.close();
+        }
+        final long start = System.currentTimeMillis();
+        if (outputDirectory.isDirectory()) {
+            FileUtils.cleanDirectory(outputDirectory);
+        }
+        FileUtils.copyDirectoryStructure(new File(entry, OUTPUT_DIRECTORY), outputDirectory);
+        final long saved = Math.max(0, Long.parseLong(metadata.getProperty(DURATION_KEY, "0"))
+                - (System.currentTimeMillis() - start));
+        HITS.incrementAndGet();
+        TIME_SAVED.addAndGet(saved);
+        log.info("Build cache hit: " + key + " (saved " + saved + " ms)");
+        return true;
+    }
+
+    /**
+     * Store the output files generated by the execution in the cache. Other files in the output directory, such as
+     * files generated from source files that have since been deleted, are not stored. The entry is assembled in a
+     * temporary directory and then renamed so that concurrent builds sharing the cache directory never see a
+     * partial entry.
+     *
+     * @param key             The cache key.
+     * @param outputDirectory The output directory.
+     * @param outputs         The paths of the output files relative to the output directory.
+     * @param duration        The time in milliseconds it took to generate the output.
+     * @throws IOException If there was a problem copying the output.
+     */
+    public void store(final String key,
+                      final File outputDirectory,
+                      final Collection<String> outputs,
+                      final long duration) throws IOException {
+        final File entry = new File(cacheDirectory, key);
+        if (entry.exists()) {
+            return;
+        }
+        cacheDirectory.mkdirs();
+        final File temp = new File(cacheDirectory, key + "." + System.nanoTime() + ".tmp");
+        try {
+            final File cachedOutput = new File(temp, OUTPUT_DIRECTORY);
+            cachedOutput.mkdirs();
+            for (final String output : outputs) {
+                final File file = new File(outputDirectory, output);
+                if (file.isFile()) {
+                    FileUtils.copyFile(file, new File(cachedOutput, output));
+                }
+            }
+            final Properties metadata = new Properties();
+            metadata.setProperty(DURATION_KEY, Long.toString(duration));
+            final OutputStream out = new FileOutputStream(new File(temp, METADATA_FILE));
+            try {
+                metadata.store(out, "Spoon build cache entry");
+            } finally {
+                out.close();
+            }
+            if (temp.renameTo(entry)) {
+                log.debug("Stored build cache entry: " + key);
+            }
+        } finally {
+            if (temp.exists()) {
+                FileUtils.deleteDirectory(temp);
+            }
+        }
+    }
+
+    /**
+     * Log the cache statistics accumulated during this build session.
+     */
+    public void logStatistics() {
+        log.info("Build cache: " + HITS.get() + " hit(s), " + MISSES.get() + " miss(es), "
+                + TIME_SAVED.get() + " ms saved");
+    }
+}
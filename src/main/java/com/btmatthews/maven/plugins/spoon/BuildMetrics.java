@@ -0,0 +1,409 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the wall time, CPU time and allocated bytes of the phases of an execution. Measurements with the same
+ * phase name are added together. Work done on a worker pool is added to the CPU time and allocated bytes of the
+ * phase by the workers while the wall time is measured by the thread waiting for the workers.
+ * <p/>
+ * CPU time and allocated bytes are reported as {@code -1} if the JVM cannot measure them for the current thread.
+ * Metrics are serializable so that they can be returned by the Spoon daemon.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class BuildMetrics implements Serializable {
+
+    /**
+     * The serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Metrics that are not collected.
+     */
+    public static final BuildMetrics DISABLED = new BuildMetrics(false);
+    /**
+     * Used to measure the CPU time of the current thread.
+     */
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    /**
+     * The {@code com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long)} method or {@code null} if the JVM
+     * does not support it.
+     */
+    private static final Method ALLOCATED_BYTES = getAllocatedBytesMethod();
+    /**
+     * Indicates whether metrics are collected.
+     */
+    private final boolean enabled;
+    /**
+     * The phases in the order they were first measured.
+     */
+    private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+
+    /**
+     * Initialise metrics that are collected.
+     */
+    public BuildMetrics() {
+        this(true);
+    }
+
+    /**
+     * Initialise the metrics.
+     *
+     * @param enabled Indicates whether metrics are collected.
+     */
+    private BuildMetrics(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Take a sample of the current thread that marks the start of a measurement.
+     *
+     * @return The sample or {@code null} if metrics are not collected.
+     */
+    public Sample sample() {
+        if (!enabled) {
+            return null;
+        }
+        return new Sample(System.nanoTime(), getCpuTime(), getAllocatedBytes());
+    }
+
+    /**
+     * Add the wall time, CPU time and allocated bytes of the current thread since the start sample to a phase.
+     *
+     * @param phase The phase name.
+     * @param start The sample taken at the start of the measurement.
+     * @return A sample taken at the end of the measurement that can be used as the start of the next measurement.
+     */
+    public Sample record(final String phase, final Sample start) {
+        return record(phase, start, 0);
+    }
+
+    /**
+     * Add the wall time, CPU time and allocated bytes of the current thread since the start sample and the number
+     * of elements processed to a phase.
+     *
+     * @param phase    The phase name.
+     * @param start    The sample taken at the start of the measurement.
+     * @param elements The number of elements processed.
+     * @return A sample taken at the end of the measurement that can be used as the start of the next measurement.
+     */
+    public Sample record(final String phase, final Sample start, final long elements) {
+        if (!enabled) {
+            return null;
+        }
+        final Sample end = sample();
+        getPhase(phase).add(end.wallTime - start.wallTime, delta(start.cpuTime, end.cpuTime),
+                delta(start.allocatedBytes, end.allocatedBytes), elements);
+        return end;
+    }
+
+    /**
+     * Add the CPU time and allocated bytes of a worker thread since the start sample to a phase. The wall time is
+     * not added because it overlaps with the other workers.
+     *
+     * @param phase The phase name.
+     * @param start The sample taken by the worker at the start of its work.
+     */
+    public void recordWork(final String phase, final Sample start) {
+        recordWork(phase, start, 0);
+    }
+
+    /**
+     * Add the CPU time and allocated bytes of a worker thread since the start sample and the number of elements
+     * processed to a phase. The wall time is not added because it overlaps with the other workers.
+     *
+     * @param phase    The phase name.
+     * @param start    The sample taken by the worker at the start of the measurement.
+     * @param elements The number of elements processed.
+     * @return A sample taken at the end of the measurement that can be used as the start of the next measurement.
+     */
+    public Sample recordWork(final String phase, final Sample start, final long elements) {
+        if (!enabled) {
+            return null;
+        }
+        final Sample end = sample();
+        getPhase(phase).add(0, delta(start.cpuTime, end.cpuTime), delta(start.allocatedBytes, end.allocatedBytes),
+                elements);
+        return end;
+    }
+
+    /**
+     * Add the phases measured by another collection of metrics, such as those returned by the Spoon daemon.
+     *
+     * @param other The other metrics.
+     */
+    public void addAll(final BuildMetrics other) {
+        if (!enabled) {
+            return;
+        }
+        for (final Phase phase : other.getPhases()) {
+            getPhase(phase.name).add(phase.wallTime, phase.cpuTime, phase.allocatedBytes, phase.elements);
+        }
+    }
+
+    /**
+     * Get the total wall time recorded for a phase.
+     *
+     * @param phase The phase name.
+     * @return The wall time in nanoseconds or {@code 0} if the phase was not measured.
+     */
+    public long getWallTime(final String phase) {
+        synchronized (phases) {
+            final Phase measured = phases.get(phase);
+            return measured == null ? 0 : measured.wallTime;
+        }
+    }
+
+    /**
+     * Log the metrics.
+     *
+     * @param log The Maven logger.
+     */
+    public void log(final Log log) {
+        for (final Phase phase : getPhases()) {
+            log.info(phase.name + ": " + phase.wallTime / 1000000 + " ms wall, "
+                    + (phase.cpuTime < 0 ? "?" : Long.toString(phase.cpuTime / 1000000)) + " ms cpu, "
+                    + (phase.allocatedBytes < 0 ? "?" : Long.toString(phase.allocatedBytes / 1024)) + " KiB allocated"
+                    + (phase.elements > 0 ? ", " + phase.elements + " elements" : ""));
+        }
+    }
+
+    /**
+     * Write the metrics to a JSON file.
+     *
+     * @param file The file.
+     * @throws IOException If there was a problem writing the file.
+     */
+    public void write(final File file) throws IOException {
+        file.getParentFile().mkdirs();
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\n  \"timestamp\": " + System.currentTimeMillis() + ",\n  \"phases\": [");
+            boolean first = true;
+            for (final Phase phase : getPhases()) {
+                writer.write(first ? "\n" : ",\n");
+                writer.write("    {\"name\": " + Json.quote(phase.name) + ", \"wallTimeNanos\": " + phase.wallTime
+                        + ", \"cpuTimeNanos\": " + phase.cpuTime + ", \"allocatedBytes\": " + phase.allocatedBytes
+                        + ", \"elements\": " + phase.elements + "}");
+                first = false;
+            }
+            writer.write("\n  ]\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Get a copy of the phases in the order they were first measured.
+     *
+     * @return The phases.
+     */
+    private List<Phase> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<Phase>(phases.values());
+        }
+    }
+
+    /**
+     * Get a phase creating it if necessary.
+     *
+     * @param name The phase name.
+     * @return The phase.
+     */
+    private Phase getPhase(final String name) {
+        synchronized (phases) {
+            Phase phase = phases.get(name);
+            if (phase == null) {
+                phase = new Phase(name);
+                phases.put(name, phase);
+            }
+            return phase;
+        }
+    }
+
+    /**
+     * Calculate the difference between two measurements that may be unavailable.
+     *
+     * @param start The measurement at the start.
+     * @param end   The measurement at the end.
+     * @return The difference or {@code -1} if either measurement is unavailable.
+     */
+    private static long delta(final long start, final long end) {
+        if (start < 0 || end < 0) {
+            return -1;
+        }
+        return end - start;
+    }
+
+    /**
+     * Get the CPU time of the current thread.
+     *
+     * @return The CPU time in nanoseconds or {@code -1} if it cannot be measured.
+     */
+    private static long getCpuTime() {
+        if (THREADS.isCurrentThreadCpuTimeSupported()) {
+            return THREADS.getCurrentThreadCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread.
+     *
+     * @return The number of bytes or {@code -1} if it cannot be measured.
+     */
+    private static long getAllocatedBytes() {
+        if (ALLOCATED_BYTES != null) {
+            try {
+                return (Long) ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+            } catch (final Exception e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Look up the method used to measure the bytes allocated by a thread. It is only available on JVMs that
+     * implement {@code com.sun.management.ThreadMXBean} so it is accessed using reflection.
+     *
+     * @return The method or {@code null} if it is not available.
+     */
+    private static Method getAllocatedBytesMethod() {
+        try {
+            final Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (type.isInstance(THREADS)
+                    && (Boolean) type.getMethod("isThreadAllocatedMemorySupported").invoke(THREADS)) {
+                final Method method = type.getMethod("getThreadAllocatedBytes", long.class);
+                method.setAccessible(true);
+                return method;
+            }
+        } catch (final Exception e) {
+            // fall through because the JVM does not support it
+        }
+        return null;
+    }
+
+    /**
+     * A sample of the wall clock and the CPU time and allocated bytes of a thread.
+     */
+    public static final class Sample {
+
+        /**
+         * The wall clock in nanoseconds.
+         */
+        private final long wallTime;
+        /**
+         * The CPU time of the thread in nanoseconds or {@code -1}.
+         */
+        private final long cpuTime;
+        /**
+         * The bytes allocated by the thread or {@code -1}.
+         */
+        private final long allocatedBytes;
+
+        /**
+         * Initialise the sample.
+         *
+         * @param wallTime       The wall clock in nanoseconds.
+         * @param cpuTime        The CPU time of the thread in nanoseconds or {@code -1}.
+         * @param allocatedBytes The bytes allocated by the thread or {@code -1}.
+         */
+        private Sample(final long wallTime, final long cpuTime, final long allocatedBytes) {
+            this.wallTime = wallTime;
+            this.cpuTime = cpuTime;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    /**
+     * The accumulated measurements of a phase.
+     */
+    private static final class Phase implements Serializable {
+
+        /**
+         * The serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The phase name.
+         */
+        private final String name;
+        /**
+         * The wall time in nanoseconds.
+         */
+        private long wallTime;
+        /**
+         * The CPU time in nanoseconds or {@code -1} if it could not be measured.
+         */
+        private long cpuTime;
+        /**
+         * The allocated bytes or {@code -1} if they could not be measured.
+         */
+        private long allocatedBytes;
+        /**
+         * The number of elements processed.
+         */
+        private long elements;
+
+        /**
+         * Initialise the phase.
+         *
+         * @param name The phase name.
+         */
+        private Phase(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Add a measurement.
+         *
+         * @param wallTime       The wall time in nanoseconds.
+         * @param cpuTime        The CPU time in nanoseconds or {@code -1}.
+         * @param allocatedBytes The allocated bytes or {@code -1}.
+         * @param elements       The number of elements processed.
+         */
+        private synchronized void add(final long wallTime,
+                                      final long cpuTime,
+                                      final long allocatedBytes,
+                                      final long elements) {
+            this.wallTime += wallTime;
+            this.cpuTime = cpuTime < 0 || this.cpuTime < 0 ? -1 : this.cpuTime + cpuTime;
+            this.allocatedBytes = allocatedBytes < 0 || this.allocatedBytes < 0 ? -1
+                    : this.allocatedBytes + allocatedBytes;
+            this.elements += elements;
+        }
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The settings for building, processing and writing a set of source files. A request is serializable so that it can
+ * be sent to the Spoon daemon.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class BuildRequest implements Serializable {
+
+    /**
+     * The serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The source compliance level.
+     */
+    private int complianceLevel;
+    /**
+     * The source files to build into the model.
+     */
+    private List<File> sources = new ArrayList<File>();
+    /**
+     * The folders containing source files that the compiler may use to resolve referenced types.
+     */
+    private List<File> inputSources = new ArrayList<File>();
+    /**
+     * The compile class path elements used to resolve referenced types and load the processors.
+     */
+    private List<String> classpath = new ArrayList<String>();
+    /**
+     * The class names of the processors or the paths of Groovy processor scripts.
+     */
+    private List<String> processors = new ArrayList<String>();
+    /**
+     * The named processor pipelines that are applied to the same model as the processors.
+     */
+    private List<Pipeline> pipelines = new ArrayList<Pipeline>();
+    /**
+     * The directory the processed source files are written to.
+     */
+    private File outputDirectory;
+    /**
+     * The character encoding of the processed source files or {@code null} to use the platform encoding.
+     */
+    private String encoding;
+    /**
+     * The number of threads used to read and parse the source files.
+     */
+    private int compilerThreads = 1;
+    /**
+     * The number of threads used to apply concurrent processors.
+     */
+    private int processingThreads = 1;
+    /**
+     * The number of threads used to pretty-print the processed types.
+     */
+    private int outputThreads = 1;
+    /**
+     * Indicates whether Groovy scripts are compiled with {@code @CompileStatic}.
+     */
+    private boolean compileStatic;
+    /**
+     * The directory used to cache compiled Groovy scripts or {@code null} if they are not cached.
+     */
+    private File scriptCacheDirectory;
+    /**
+     * Indicates whether the compiler keeps every problem it reports until the model has been processed.
+     */
+    private boolean retainCompilerProblems;
+    /**
+     * The number of compilation errors after which the build is aborted or {@code 0} if there is no limit.
+     */
+    private int maxErrors;
+    /**
+     * Forces flow analysis on or off or {@code null} to let the processors decide.
+     */
+    private Boolean flowAnalysis;
+    /**
+     * Forces doc comments on or off or {@code null} to let the processors decide.
+     */
+    private Boolean javadoc;
+    /**
+     * Indicates whether the types declared and referenced by each source file are recorded.
+     */
+    private boolean recordDependencies;
+    /**
+     * The number of worker threads shared by every execution in the build session or {@code 0} to use the number of
+     * available processors.
+     */
+    private int workerThreads;
+    /**
+     * The memory limit in megabytes shared by every execution in the build session or {@code 0} to use a
+     * percentage of the maximum heap size.
+     */
+    private int memoryLimit;
+    /**
+     * Indicates whether each top-level type is written as soon as the processors have finished with it.
+     */
+    private boolean streaming;
+    /**
+     * The version of the plugin that created the request.
+     */
+    private String pluginVersion;
+    /**
+     * Indicates whether the metrics of the build phases are collected.
+     */
+    private boolean metrics;
+
+    /**
+     * Get the source compliance level.
+     *
+     * @return The compliance level.
+     */
+    public int getComplianceLevel() {
+        return complianceLevel;
+    }
+
+    /**
+     * Set the source compliance level.
+     *
+     * @param complianceLevel The compliance level.
+     */
+    public void setComplianceLevel(final int complianceLevel) {
+        this.complianceLevel = complianceLevel;
+    }
+
+    /**
+     * Get the source files to build into the model.
+     *
+     * @return The source files.
+     */
+    public List<File> getSources() {
+        return sources;
+    }
+
+    /**
+     * Set the source files to build into the model.
+     *
+     * @param sources The source files.
+     */
+    public void setSources(final List<File> sources) {
+        this.sources = sources;
+    }
+
+    /**
+     * Get the folders containing source files that the compiler may use to resolve referenced types.
+     *
+     * @return The folders.
+     */
+    public List<File> getInputSources() {
+        return inputSources;
+    }
+
+    /**
+     * Set the folders containing source files that the compiler may use to resolve referenced types.
+     *
+     * @param inputSources The folders.
+     */
+    public void setInputSources(final List<File> inputSources) {
+        this.inputSources = inputSources;
+    }
+
+    /**
+     * Get the compile class path elements used to resolve referenced types and load the processors.
+     *
+     * @return The class path elements.
+     */
+    public List<String> getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * Set the compile class path elements used to resolve referenced types and load the processors.
+     *
+     * @param classpath The class path elements.
+     */
+    public void setClasspath(final List<String> classpath) {
+        this.classpath = classpath;
+    }
+
+    /**
+     * Get the class names of the processors or the paths of Groovy processor scripts.
+     *
+     * @return The processors.
+     */
+    public List<String> getProcessors() {
+        return processors;
+    }
+
+    /**
+     * Set the class names of the processors or the paths of Groovy processor scripts.
+     *
+     * @param processors The processors.
+     */
+    public void setProcessors(final List<String> processors) {
+        this.processors = processors;
+    }
+
+    /**
+     * Get the named processor pipelines that are applied to the same model as the processors.
+     *
+     * @return The pipelines.
+     */
+    public List<Pipeline> getPipelines() {
+        return pipelines;
+    }
+
+    /**
+     * Set the named processor pipelines that are applied to the same model as the processors.
+     *
+     * @param pipelines The pipelines.
+     */
+    public void setPipelines(final List<Pipeline> pipelines) {
+        this.pipelines = pipelines;
+    }
+
+    /**
+     * Get the directory the processed source files are written to.
+     *
+     * @return The output directory.
+     */
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Set the directory the processed source files are written to.
+     *
+     * @param outputDirectory The output directory.
+     */
+    public void setOutputDirectory(final File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Get the character encoding of the processed source files or {@code null} to use the platform encoding.
+     *
+     * @return The character encoding.
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Set the character encoding of the processed source files or {@code null} to use the platform encoding.
+     *
+     * @param encoding The character encoding.
+     */
+    public void setEncoding(final String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Get the number of threads used to read and parse the source files.
+     *
+     * @return The number of threads.
+     */
+    public int getCompilerThreads() {
+        return compilerThreads;
+    }
+
+    /**
+     * Set the number of threads used to read and parse the source files.
+     *
+     * @param compilerThreads The number of threads.
+     */
+    public void setCompilerThreads(final int compilerThreads) {
+        this.compilerThreads = compilerThreads;
+    }
+
+    /**
+     * Get the number of threads used to apply concurrent processors.
+     *
+     * @return The number of threads.
+     */
+    public int getProcessingThreads() {
+        return processingThreads;
+    }
+
+    /**
+     * Set the number of threads used to apply concurrent processors.
+     *
+     * @param processingThreads The number of threads.
+     */
+    public void setProcessingThreads(final int processingThreads) {
+        this.processingThreads = processingThreads;
+    }
+
+    /**
+     * Get the number of threads used to pretty-print the processed types.
+     *
+     * @return The number of threads.
+     */
+    public int getOutputThreads() {
+        return outputThreads;
+    }
+
+    /**
+     * Set the number of threads used to pretty-print the processed types.
+     *
+     * @param outputThreads The number of threads.
+     */
+    public void setOutputThreads(final int outputThreads) {
+        this.outputThreads = outputThreads;
+    }
+
+    /**
+     * Check whether Groovy scripts are compiled with {@code @CompileStatic}.
+     *
+     * @return {@code true} if Groovy scripts are compiled statically.
+     */
+    public boolean isCompileStatic() {
+        return compileStatic;
+    }
+
+    /**
+     * Set whether Groovy scripts are compiled with {@code @CompileStatic}.
+     *
+     * @param compileStatic {@code true} if Groovy scripts are compiled statically.
+     */
+    public void setCompileStatic(final boolean compileStatic) {
+        this.compileStatic = compileStatic;
+    }
+
+    /**
+     * Get the directory used to cache compiled Groovy scripts or {@code null} if they are not cached.
+     *
+     * @return The cache directory.
+     */
+    public File getScriptCacheDirectory() {
+        return scriptCacheDirectory;
+    }
+
+    /**
+     * Set the directory used to cache compiled Groovy scripts or {@code null} if they are not cached.
+     *
+     * @param scriptCacheDirectory The cache directory.
+     */
+    public void setScriptCacheDirectory(final File scriptCacheDirectory) {
+        this.scriptCacheDirectory = scriptCacheDirectory;
+    }
+
+    /**
+     * Check whether the compiler keeps every problem it reports until the model has been processed.
+     *
+     * @return {@code true} if the problems are kept.
+     */
+    public boolean isRetainCompilerProblems() {
+        return retainCompilerProblems;
+    }
+
+    /**
+     * Set whether the compiler keeps every problem it reports until the model has been processed.
+     *
+     * @param retainCompilerProblems {@code true} if the problems are kept.
+     */
+    public void setRetainCompilerProblems(final boolean retainCompilerProblems) {
+        this.retainCompilerProblems = retainCompilerProblems;
+    }
+
+    /**
+     * Get the number of compilation errors after which the build is aborted or {@code 0} if there is no limit.
+     *
+     * @return The number of errors.
+     */
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * Set the number of compilation errors after which the build is aborted or {@code 0} if there is no limit.
+     *
+     * @param maxErrors The number of errors.
+     */
+    public void setMaxErrors(final int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Get whether flow analysis is forced on or off.
+     *
+     * @return The flow analysis setting or {@code null} if the processors decide.
+     */
+    public Boolean getFlowAnalysis() {
+        return flowAnalysis;
+    }
+
+    /**
+     * Force flow analysis on or off.
+     *
+     * @param flowAnalysis The flow analysis setting or {@code null} to let the processors decide.
+     */
+    public void setFlowAnalysis(final Boolean flowAnalysis) {
+        this.flowAnalysis = flowAnalysis;
+    }
+
+    /**
+     * Get whether doc comments are forced on or off.
+     *
+     * @return The doc comment setting or {@code null} if the processors decide.
+     */
+    public Boolean getJavadoc() {
+        return javadoc;
+    }
+
+    /**
+     * Force doc comments on or off.
+     *
+     * @param javadoc The doc comment setting or {@code null} to let the processors decide.
+     */
+    public void setJavadoc(final Boolean javadoc) {
+        this.javadoc = javadoc;
+    }
+
+    /**
+     * Check whether the types declared and referenced by each source file are recorded.
+     *
+     * @return {@code true} if the dependencies are recorded.
+     */
+    public boolean isRecordDependencies() {
+        return recordDependencies;
+    }
+
+    /**
+     * Set whether the types declared and referenced by each source file are recorded.
+     *
+     * @param recordDependencies {@code true} if the dependencies are recorded.
+     */
+    public void setRecordDependencies(final boolean recordDependencies) {
+        this.recordDependencies = recordDependencies;
+    }
+
+    /**
+     * Get the number of worker threads shared by every execution in the build session.
+     *
+     * @return The number of threads or {@code 0} to use the number of available processors.
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Set the number of worker threads shared by every execution in the build session.
+     *
+     * @param workerThreads The number of threads or {@code 0} to use the number of available processors.
+     */
+    public void setWorkerThreads(final int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * Get the memory limit shared by every execution in the build session.
+     *
+     * @return The memory limit in megabytes or {@code 0} to use a percentage of the maximum heap size.
+     */
+    public int getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Set the memory limit shared by every execution in the build session.
+     *
+     * @param memoryLimit The memory limit in megabytes or {@code 0} to use a percentage of the maximum heap size.
+     */
+    public void setMemoryLimit(final int memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Check whether each top-level type is written as soon as the processors have finished with it.
+     *
+     * @return {@code true} if the types are streamed.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Set whether each top-level type is written as soon as the processors have finished with it.
+     *
+     * @param streaming {@code true} if the types are streamed.
+     */
+    public void setStreaming(final boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Get the version of the plugin that created the request.
+     *
+     * @return The plugin version.
+     */
+    public String getPluginVersion() {
+        return pluginVersion;
+    }
+
+    /**
+     * Set the version of the plugin that created the request.
+     *
+     * @param pluginVersion The plugin version.
+     */
+    public void setPluginVersion(final String pluginVersion) {
+        this.pluginVersion = pluginVersion;
+    }
+
+    /**
+     * Check whether the metrics of the build phases are collected.
+     *
+     * @return {@code true} if the metrics are collected.
+     */
+    public boolean isMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set whether the metrics of the build phases are collected.
+     *
+     * @param metrics {@code true} if the metrics are collected.
+     */
+    public void setMetrics(final boolean metrics) {
+        this.metrics = metrics;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The outcome of building, processing and writing a set of source files. A result is serializable so that it can be
+ * returned by the Spoon daemon.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class BuildResult implements Serializable {
+
+    /**
+     * The serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Map source file paths to the paths of the output files relative to the output directory.
+     */
+    private final Map<String, List<String>> outputs = new TreeMap<String, List<String>>();
+    /**
+     * The files that were written.
+     */
+    private final List<File> writtenFiles = new ArrayList<File>();
+    /**
+     * The number of output files that were left untouched because their contents did not change.
+     */
+    private int skippedCount;
+    /**
+     * The types declared and referenced by each source file or {@code null} if they were not recorded.
+     */
+    private DependencyIndex dependencies;
+    /**
+     * The problems reported by the compiler when the build was performed by the Spoon daemon.
+     */
+    private CompilerDiagnostics diagnostics;
+    /**
+     * The exception that aborted the build when it was performed by the Spoon daemon.
+     */
+    private Exception failure;
+    /**
+     * The metrics of the build phases when the build was performed by the Spoon daemon.
+     */
+    private BuildMetrics metrics;
+    /**
+     * The time in nanoseconds spent building the model.
+     */
+    private long buildTime;
+    /**
+     * The time in nanoseconds the compiler spent on flow analysis while building the model.
+     */
+    private long analysisTime;
+    /**
+     * Indicates whether the compiler parsed doc comments while building the model.
+     */
+    private boolean javadoc;
+
+    /**
+     * Get the output files generated from each source file.
+     *
+     * @return Map source file paths to the paths of the output files relative to the output directory.
+     */
+    public Map<String, List<String>> getOutputs() {
+        return Collections.unmodifiableMap(outputs);
+    }
+
+    /**
+     * Record an output file generated from a source file.
+     *
+     * @param source The source file path.
+     * @param output The output file path relative to the output directory.
+     */
+    public void addOutput(final String source, final String output) {
+        List<String> files = outputs.get(source);
+        if (files == null) {
+            files = new ArrayList<String>();
+            outputs.put(source, files);
+        }
+        if (!files.contains(output)) {
+            files.add(output);
+        }
+    }
+
+    /**
+     * Get the files that were written.
+     *
+     * @return The files.
+     */
+    public List<File> getWrittenFiles() {
+        return Collections.unmodifiableList(writtenFiles);
+    }
+
+    /**
+     * Record the files that were written.
+     *
+     * @param files The files.
+     */
+    public void addWrittenFiles(final List<File> files) {
+        writtenFiles.addAll(files);
+    }
+
+    /**
+     * Get the number of output files that were left untouched because their contents did not change.
+     *
+     * @return The number of files.
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Add to the number of output files that were left untouched because their contents did not change.
+     *
+     * @param count The number of files.
+     */
+    public void addSkippedCount(final int count) {
+        skippedCount += count;
+    }
+
+    /**
+     * Get the types declared and referenced by each source file.
+     *
+     * @return The dependency index or {@code null} if the dependencies were not recorded.
+     */
+    public DependencyIndex getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * Set the types declared and referenced by each source file.
+     *
+     * @param dependencies The dependency index.
+     */
+    public void setDependencies(final DependencyIndex dependencies) {
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * Get the problems reported by the compiler when the build was performed by the Spoon daemon.
+     *
+     * @return The diagnostics or {@code null} if the build was performed in the Maven build.
+     */
+    public CompilerDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Set the problems reported by the compiler when the build was performed by the Spoon daemon.
+     *
+     * @param diagnostics The diagnostics.
+     */
+    public void setDiagnostics(final CompilerDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Get the exception that aborted the build when it was performed by the Spoon daemon.
+     *
+     * @return The exception or {@code null} if the build was not aborted.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * Set the exception that aborted the build when it was performed by the Spoon daemon.
+     *
+     * @param failure The exception.
+     */
+    public void setFailure(final Exception failure) {
+        this.failure = failure;
+    }
+
+    /**
+     * Get the metrics of the build phases when the build was performed by the Spoon daemon.
+     *
+     * @return The metrics or {@code null} if they were not collected.
+     */
+    public BuildMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the metrics of the build phases when the build was performed by the Spoon daemon.
+     *
+     * @param metrics The metrics.
+     */
+    public void setMetrics(final BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the time spent building the model.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * Get the time the compiler spent on flow analysis while building the model.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getAnalysisTime() {
+        return analysisTime;
+    }
+
+    /**
+     * Check whether the compiler parsed doc comments while building the model.
+     *
+     * @return {@code true} if doc comments were parsed.
+     */
+    public boolean isJavadoc() {
+        return javadoc;
+    }
+
+    /**
+     * Record the cost of building the model. These are measured whether or not metrics are collected.
+     *
+     * @param buildTime    The time in nanoseconds spent building the model.
+     * @param analysisTime The time in nanoseconds the compiler spent on flow analysis.
+     * @param javadoc      {@code true} if doc comments were parsed.
+     */
+    public void setBuildCost(final long buildTime, final long analysisTime, final boolean javadoc) {
+        this.buildTime = buildTime;
+        this.analysisTime = analysisTime;
+        this.javadoc = javadoc;
+    }
+}
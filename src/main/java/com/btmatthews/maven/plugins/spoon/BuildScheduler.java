@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the work of every Spoon execution in the build session. The parsing, processing and output phases of
+ * all executions share one bounded worker pool so that parallel module builds do not oversubscribe the CPU cores.
+ * Before building its model an execution is admitted against a global memory limit using an estimate based on the
+ * size of its source files. Executions wait until enough memory is released by other executions instead of
+ * exhausting the heap. The scheduler is configured by the executions it admits. When an execution asks for different
+ * settings it is rebuilt with them, but only once no other execution is running, so an execution never
+ * sees the worker pool or the memory limit change under it.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public final class BuildScheduler {
+
+    /**
+     * The number of bytes in a megabyte.
+     */
+    private static final long MEGABYTE = 1024L * 1024L;
+    /**
+     * The estimated number of bytes of heap used by the compiler state and Spoon model for each byte of source.
+     */
+    private static final long MODEL_BYTES_PER_SOURCE_BYTE = 40;
+    /**
+     * The percentage of the maximum heap size used as the memory limit if no limit is configured.
+     */
+    private static final long DEFAULT_MEMORY_PERCENTAGE = 75;
+    /**
+     * The time in seconds an idle worker thread is kept.
+     */
+    private static final long KEEP_ALIVE = 60;
+    /**
+     * Guards the configuration of the scheduler.
+     */
+    private static final Object LOCK = new Object();
+    /**
+     * The worker pool shared by every execution or {@code null} if it has not been created yet.
+     */
+    private static ThreadPoolExecutor executor;
+    /**
+     * The memory available for admission in megabytes or {@code null} if the scheduler has not been configured.
+     */
+    private static Semaphore memory;
+    /**
+     * The memory limit in megabytes.
+     */
+    private static int memoryLimit;
+    /**
+     * The number of executions that have been admitted and not yet released.
+     */
+    private static int active;
+
+    /**
+     * Prevent instantiation.
+     */
+    private BuildScheduler() {
+    }
+
+    /**
+     * Get the worker pool shared by every execution. The pool is never shut down by the caller. Tasks submitted to
+     * the pool must not submit further tasks and wait for them because that can exhaust the workers.
+     *
+     * @return The worker pool.
+     */
+    public static ExecutorService getExecutor() {
+        synchronized (LOCK) {
+            if (executor == null) {
+                executor = createExecutor(Runtime.getRuntime().availableProcessors());
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Create the worker pool. Idle worker threads are stopped so that the pool does not hold threads between builds
+     * in a long-lived Maven process or the Spoon daemon.
+     *
+     * @param workers The number of worker threads.
+     * @return The worker pool.
+     */
+    private static ThreadPoolExecutor createExecutor(final int workers) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Estimate the memory needed to build the model for a set of source files.
+     *
+     * @param sources The source files.
+     * @return The estimated memory in megabytes.
+     */
+    public static int estimate(final List<File> sources) {
+        long bytes = 0;
+        for (final File source : sources) {
+            bytes += source.length();
+        }
+        return (int) Math.max(1, bytes * MODEL_BYTES_PER_SOURCE_BYTE / MEGABYTE);
+    }
+
+    /**
+     * Configure the scheduler and then wait until the estimated memory is available and reserve it. The scheduler is
+     * rebuilt if the settings differ from the current settings and no other execution is running. Otherwise the
+     * current settings are used. An estimate larger than the memory limit is admitted once no other execution holds
+     * any memory. Each call must be matched by a call to {@link #release(int)} with the returned amount.
+     *
+     * @param threads       The number of worker threads or {@code 0} to use the number of available processors.
+     * @param memoryLimitMb The memory limit in megabytes or {@code 0} to use a percentage of the maximum heap size.
+     * @param estimate      The estimated memory in megabytes.
+     * @param log           Used to log the settings and that the execution is waiting.
+     * @return The reserved memory in megabytes.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public static int admit(final int threads, final int memoryLimitMb, final int estimate, final Log log)
+            throws InterruptedException {
+        final Semaphore available;
+        final int permits;
+        synchronized (LOCK) {
+            final int workers = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            final int limit = memoryLimitMb > 0 ? memoryLimitMb
+                    : (int) (Runtime.getRuntime().maxMemory() / MEGABYTE * DEFAULT_MEMORY_PERCENTAGE / 100);
+            if (memory == null
+                    || active == 0 && (workers != executor.getMaximumPoolSize() || limit != memoryLimit)) {
+                reconfigure(workers, limit, log);
+            }
+            active++;
+            available = memory;
+            permits = Math.min(estimate, memoryLimit);
+        }
+        try {
+            if (!available.tryAcquire(permits)) {
+                log.info("Waiting for " + permits + " MB of memory used by other Spoon executions");
+                available.acquire(permits);
+            }
+        } catch (final InterruptedException e) {
+            synchronized (LOCK) {
+                active--;
+            }
+            throw e;
+        }
+        return permits;
+    }
+
+    /**
+     * Rebuild the worker pool and the memory limit. The previous worker pool is shut down.
+     *
+     * @param workers The number of worker threads.
+     * @param limit   The memory limit in megabytes.
+     * @param log     Used to log the settings.
+     */
+    private static void reconfigure(final int workers, final int limit, final Log log) {
+        if (executor != null && executor.getMaximumPoolSize() != workers) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (executor == null) {
+            executor = createExecutor(workers);
+        }
+        memoryLimit = limit;
+        memory = new Semaphore(memoryLimit, true);
+        log.info("Spoon scheduler: " + workers + " worker threads, " + memoryLimit + " MB memory limit");
+    }
+
+    /**
+     * Release memory reserved by {@link #admit(int, int, int, Log)}.
+     *
+     * @param permits The reserved memory in megabytes.
+     */
+    public static void release(final int permits) {
+        final Semaphore available;
+        synchronized (LOCK) {
+            active--;
+            available = memory;
+        }
+        if (permits > 0) {
+            available.release(permits);
+        }
+    }
+
+    /**
+     * Creates the daemon worker threads so that an idle pool never prevents the JVM from exiting.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        /**
+         * The number of threads created.
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * Create a worker thread.
+         *
+         * @param runnable The task run by the thread.
+         * @return The thread.
+         */
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "spoon-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
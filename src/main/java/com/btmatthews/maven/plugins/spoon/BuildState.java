@@ -0,0 +1,255 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The state of a previous execution of the spoon goal that is persisted between builds so that unchanged source
+ * files do not have to be processed again. The state records the digest of each source file, the output files
+ * that were generated from it and a fingerprint of the processors, class path and source compliance level that
+ * were used. It also records the digests of the source files in the input sources that were not selected for
+ * processing because the processed source files can still reference the types they declare.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class BuildState {
+
+    /**
+     * The property holding the fingerprint.
+     */
+    private static final String FINGERPRINT_KEY = "fingerprint";
+    /**
+     * The prefix for the properties holding the source file digests.
+     */
+    private static final String SOURCE_PREFIX = "source.";
+    /**
+     * The prefix for the properties holding the output files.
+     */
+    private static final String OUTPUT_PREFIX = "output.";
+    /**
+     * The prefix for the properties holding the digests of the source files that were not selected for processing.
+     */
+    private static final String SOURCE_PATH_PREFIX = "sourcepath.";
+    /**
+     * The separator used when the output files are stored as a single property value. File names cannot contain
+     * the NUL character on any platform.
+     */
+    private static final String OUTPUT_SEPARATOR = "\u0000";
+    /**
+     * The fingerprint of the processors, class path and compliance level.
+     */
+    private final String fingerprint;
+    /**
+     * Map source file paths to digests.
+     */
+    private final Map<String, String> sourceDigests = new TreeMap<String, String>();
+    /**
+     * Map source file paths to the paths of the output files relative to the output directory.
+     */
+    private final Map<String, List<String>> outputs = new TreeMap<String, List<String>>();
+    /**
+     * Map the paths of the source files that were not selected for processing to digests.
+     */
+    private final Map<String, String> sourcePathDigests = new TreeMap<String, String>();
+
+    /**
+     * Initialise an empty build state.
+     *
+     * @param fingerprint The fingerprint of the processors, class path and compliance level.
+     */
+    public BuildState(final String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Load the build state persisted by a previous execution.
+     *
+     * @param stateFile The file containing the persisted build state.
+     * @return The build state or {@code null} if no state was persisted.
+     * @throws IOException If there was a problem reading the state file.
+     */
+    public static BuildState load(final File stateFile) throws IOException {
+        if (!stateFile.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(stateFile);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        final String fingerprint = properties.getProperty(FINGERPRINT_KEY);
+        if (fingerprint == null) {
+            return null;
+        }
+        final BuildState state = new BuildState(fingerprint);
+        for (final String key : properties.stringPropertyNames()) {
+            final String value = properties.getProperty(key);
+            if (key.startsWith(SOURCE_PREFIX)) {
+                state.sourceDigests.put(key.substring(SOURCE_PREFIX.length()), value);
+            } else if (key.startsWith(OUTPUT_PREFIX)) {
+                final List<String> files = new ArrayList<String>();
+                for (final String file : value.split(OUTPUT_SEPARATOR)) {
+                    if (file.length() > 0) {
+                        files.add(file);
+                    }
+                }
+                state.outputs.put(key.substring(OUTPUT_PREFIX.length()), files);
+            } else if (key.startsWith(SOURCE_PATH_PREFIX)) {
+                state.sourcePathDigests.put(key.substring(SOURCE_PATH_PREFIX.length()), value);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Persist the build state.
+     *
+     * @param stateFile The file that will contain the persisted build state.
+     * @throws IOException If there was a problem writing the state file.
+     */
+    public void save(final File stateFile) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(FINGERPRINT_KEY, fingerprint);
+        for (final Map.Entry<String, String> entry : sourceDigests.entrySet()) {
+            properties.setProperty(SOURCE_PREFIX + entry.getKey(), entry.getValue());
+        }
+        for (final Map.Entry<String, List<String>> entry : outputs.entrySet()) {
+            final StringBuilder value = new StringBuilder();
+            for (final String file : entry.getValue()) {
+                if (value.length() > 0) {
+                    value.append(OUTPUT_SEPARATOR);
+                }
+                value.append(file);
+            }
+            properties.setProperty(OUTPUT_PREFIX + entry.getKey(), value.toString());
+        }
+        for (final Map.Entry<String, String> entry : sourcePathDigests.entrySet()) {
+            properties.setProperty(SOURCE_PATH_PREFIX + entry.getKey(), entry.getValue());
+        }
+        stateFile.getParentFile().mkdirs();
+        final OutputStream out = new FileOutputStream(stateFile);
+        try {
+            properties.store(out, "Spoon build state");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Get the fingerprint of the processors, class path and compliance level.
+     *
+     * @return The fingerprint.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Get the paths of the source files recorded in the build state.
+     *
+     * @return The source file paths.
+     */
+    public Set<String> getSources() {
+        return Collections.unmodifiableSet(sourceDigests.keySet());
+    }
+
+    /**
+     * Get the digest recorded for a source file.
+     *
+     * @param source The source file path.
+     * @return The digest or {@code null} if the source file was not recorded.
+     */
+    public String getDigest(final String source) {
+        return sourceDigests.get(source);
+    }
+
+    /**
+     * Record the digest of a source file.
+     *
+     * @param source The source file path.
+     * @param digest The digest.
+     */
+    public void setDigest(final String source, final String digest) {
+        sourceDigests.put(source, digest);
+    }
+
+    /**
+     * Get the output files generated from a source file.
+     *
+     * @param source The source file path.
+     * @return The output file paths relative to the output directory.
+     */
+    public List<String> getOutputs(final String source) {
+        final List<String> files = outputs.get(source);
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Record an output file generated from a source file.
+     *
+     * @param source The source file path.
+     * @param output The output file path relative to the output directory.
+     */
+    public void addOutput(final String source, final String output) {
+        List<String> files = outputs.get(source);
+        if (files == null) {
+            files = new ArrayList<String>();
+            outputs.put(source, files);
+        }
+        if (!files.contains(output)) {
+            files.add(output);
+        }
+    }
+
+    /**
+     * Get the digests of the source files that were not selected for processing.
+     *
+     * @return The digests keyed by source file path.
+     */
+    public Map<String, String> getSourcePathDigests() {
+        return Collections.unmodifiableMap(sourcePathDigests);
+    }
+
+    /**
+     * Record the digest of a source file that was not selected for processing.
+     *
+     * @param source The source file path.
+     * @param digest The digest.
+     */
+    public void setSourcePathDigest(final String source, final String digest) {
+        sourcePathDigests.put(source, digest);
+    }
+}
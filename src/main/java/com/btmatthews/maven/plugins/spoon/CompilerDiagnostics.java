@@ -0,0 +1,268 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact summary of the problems reported by the compiler. Only the number of errors and warnings and the first
+ * few errors are kept so that the compiler's problem objects can be released as soon as the model has been built.
+ * The first few errors are also sent to the Maven log as they are reported and the remainder are only logged at debug
+ * level so that a broken build does not flood the log. The diagnostics are serializable so that the
+ * problems reported in the Spoon daemon can be returned to the Maven build.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class CompilerDiagnostics implements Serializable {
+
+    /**
+     * The serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The maximum number of errors that are kept.
+     */
+    private static final int MAX_ERRORS = 100;
+    /**
+     * The maximum number of errors that are logged at error level.
+     */
+    private static final int MAX_LOGGED_ERRORS = 10;
+    /**
+     * The Maven logger or {@code null} if problems are not logged.
+     */
+    private final transient Log log;
+    /**
+     * The number of errors.
+     */
+    private int errorCount;
+    /**
+     * The number of warnings.
+     */
+    private int warningCount;
+    /**
+     * The first {@link #MAX_ERRORS} errors.
+     */
+    private final List<Problem> errors = new ArrayList<Problem>();
+
+    /**
+     * Initialise diagnostics that are not logged.
+     */
+    public CompilerDiagnostics() {
+        this(null);
+    }
+
+    /**
+     * Initialise diagnostics that are sent to the Maven log.
+     *
+     * @param log The Maven logger.
+     */
+    public CompilerDiagnostics(final Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Record an error. Errors after the first {@link #MAX_LOGGED_ERRORS} are only logged at debug level.
+     *
+     * @param file    The source file.
+     * @param line    The line number or {@code 0} if it is not known.
+     * @param message The error message.
+     */
+    public synchronized void addError(final String file, final int line, final String message) {
+        errorCount++;
+        final Problem problem = new Problem(file, line, message);
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(problem);
+        }
+        if (log != null) {
+            if (errorCount <= MAX_LOGGED_ERRORS) {
+                log.error(problem.toString());
+            } else if (log.isDebugEnabled()) {
+                log.debug(problem.toString());
+            }
+        }
+    }
+
+    /**
+     * Record a warning. Warnings are only logged at debug level.
+     *
+     * @param file    The source file.
+     * @param line    The line number or {@code 0} if it is not known.
+     * @param message The warning message.
+     */
+    public synchronized void addWarning(final String file, final int line, final String message) {
+        warningCount++;
+        if (log != null && log.isDebugEnabled()) {
+            log.debug(new Problem(file, line, message).toString());
+        }
+    }
+
+    /**
+     * Add the problems recorded by other diagnostics, logging the errors that were kept.
+     *
+     * @param other The other diagnostics.
+     */
+    public void addAll(final CompilerDiagnostics other) {
+        final List<Problem> otherErrors;
+        final int otherErrorCount;
+        final int otherWarningCount;
+        synchronized (other) {
+            otherErrors = new ArrayList<Problem>(other.errors);
+            otherErrorCount = other.errorCount;
+            otherWarningCount = other.warningCount;
+        }
+        synchronized (this) {
+            for (final Problem error : otherErrors) {
+                addError(error.file, error.line, error.message);
+            }
+            errorCount += otherErrorCount - otherErrors.size();
+            warningCount += otherWarningCount;
+        }
+    }
+
+    /**
+     * Get the number of errors.
+     *
+     * @return The number of errors.
+     */
+    public synchronized int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Get the number of errors that were not logged at error level.
+     *
+     * @return The number of errors.
+     */
+    public synchronized int getUnloggedErrorCount() {
+        return Math.max(0, errorCount - MAX_LOGGED_ERRORS);
+    }
+
+    /**
+     * Get the number of warnings.
+     *
+     * @return The number of warnings.
+     */
+    public synchronized int getWarningCount() {
+        return warningCount;
+    }
+
+    /**
+     * Get the messages of the first errors.
+     *
+     * @return The error messages formatted as {@code file:line: message}.
+     */
+    public synchronized List<String> getErrorMessages() {
+        final List<String> messages = new ArrayList<String>(errors.size());
+        for (final Problem error : errors) {
+            messages.add(error.toString());
+        }
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * Write the diagnostics to a JSON file.
+     *
+     * @param file The file.
+     * @throws IOException If there was a problem writing the file.
+     */
+    public synchronized void write(final File file) throws IOException {
+        file.getParentFile().mkdirs();
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\n  \"errorCount\": " + errorCount + ",\n  \"warningCount\": " + warningCount
+                    + ",\n  \"errors\": [");
+            boolean first = true;
+            for (final Problem error : errors) {
+                writer.write(first ? "\n" : ",\n");
+                writer.write("    {\"file\": " + Json.quote(error.file) + ", \"line\": " + error.line
+                        + ", \"message\": " + Json.quote(error.message) + "}");
+                first = false;
+            }
+            writer.write("\n  ]\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Get the summary of the problems.
+     *
+     * @return The number of errors and warnings.
+     */
+    @Override
+    public synchronized String toString() {
+        return errorCount + " error(s), " + warningCount + " warning(s)";
+    }
+
+    /**
+     * A problem reported by the compiler.
+     */
+    private static final class Problem implements Serializable {
+
+        /**
+         * The serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The source file.
+         */
+        private final String file;
+        /**
+         * The line number or {@code 0} if it is not known.
+         */
+        private final int line;
+        /**
+         * The message.
+         */
+        private final String message;
+
+        /**
+         * Initialise the problem.
+         *
+         * @param file    The source file.
+         * @param line    The line number or {@code 0} if it is not known.
+         * @param message The message.
+         */
+        private Problem(final String file, final int line, final String message) {
+            this.file = file;
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * Format the problem.
+         *
+         * @return The problem formatted as {@code file:line: message}.
+         */
+        @Override
+        public String toString() {
+            return file + ':' + line + ": " + message;
+        }
+    }
+}
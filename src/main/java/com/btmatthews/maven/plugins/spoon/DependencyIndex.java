@@ -0,0 +1,392 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import spoon.reflect.Factory;
+import spoon.reflect.declaration.CtSimpleType;
+import spoon.reflect.reference.CtTypeReference;
+import spoon.reflect.visitor.CtScanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Records the top-level types declared by each source file and the top-level types they reference through
+ * supertypes, annotations, signatures and method bodies. The index is persisted between incremental builds so
+ * that the source files depending on a changed source file are processed again even though they did not change.
+ * It is stored in a compact binary form with a table of the distinct names followed by the index of each source
+ * file.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class DependencyIndex implements Serializable {
+
+    /**
+     * The serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Identifies a dependency index file.
+     */
+    private static final int MAGIC = 0x53504449;
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Map source file paths to the qualified names of the top-level types they declare.
+     */
+    private final Map<String, Set<String>> declaredTypes = new TreeMap<String, Set<String>>();
+    /**
+     * Map source file paths to the qualified names of the top-level types they reference.
+     */
+    private final Map<String, Set<String>> referencedTypes = new TreeMap<String, Set<String>>();
+
+    /**
+     * Load the dependency index persisted by a previous execution.
+     *
+     * @param indexFile The file containing the persisted dependency index.
+     * @return The dependency index or {@code null} if no index was persisted or it was written by an incompatible
+     *         version of the plugin.
+     * @throws IOException If there was a problem reading the index file.
+     */
+    public static DependencyIndex load(final File indexFile) throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            final String[] names = new String[in.readInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = in.readUTF();
+            }
+            final DependencyIndex index = new DependencyIndex();
+            final int sourceCount = in.readInt();
+            for (int i = 0; i < sourceCount; i++) {
+                final String source = names[in.readInt()];
+                index.declaredTypes.put(source, readNames(in, names));
+                index.referencedTypes.put(source, readNames(in, names));
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Persist the dependency index.
+     *
+     * @param indexFile The file that will contain the persisted dependency index.
+     * @throws IOException If there was a problem writing the index file.
+     */
+    public void save(final File indexFile) throws IOException {
+        final Map<String, Integer> ids = new HashMap<String, Integer>();
+        final List<String> names = new ArrayList<String>();
+        for (final String source : declaredTypes.keySet()) {
+            addName(ids, names, source);
+            for (final String type : declaredTypes.get(source)) {
+                addName(ids, names, type);
+            }
+            for (final String type : getReferencedTypes(source)) {
+                addName(ids, names, type);
+            }
+        }
+        indexFile.getParentFile().mkdirs();
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+            for (final String name : names) {
+                out.writeUTF(name);
+            }
+            out.writeInt(declaredTypes.size());
+            for (final String source : declaredTypes.keySet()) {
+                out.writeInt(ids.get(source));
+                writeNames(out, ids, declaredTypes.get(source));
+                writeNames(out, ids, getReferencedTypes(source));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Record the types declared and referenced by the top-level types in a model.
+     *
+     * @param factory The factory that owns the model.
+     */
+    public void record(final Factory factory) {
+        for (final CtSimpleType<?> type : Types.getTopLevelTypes(factory)) {
+            final File sourceFile = Types.getSourceFile(type);
+            if (sourceFile != null) {
+                final String source = sourceFile.getAbsolutePath();
+                getNames(declaredTypes, source).add(type.getQualifiedName());
+                final ReferenceCollector collector = new ReferenceCollector(getNames(referencedTypes, source));
+                collector.scan(type);
+            }
+        }
+    }
+
+    /**
+     * Copy the entry for a source file that was not processed again from a previous dependency index.
+     *
+     * @param previous The previous dependency index.
+     * @param source   The source file path.
+     */
+    public void copy(final DependencyIndex previous, final String source) {
+        final Set<String> types = previous.declaredTypes.get(source);
+        if (types != null) {
+            getNames(declaredTypes, source).addAll(types);
+            getNames(referencedTypes, source).addAll(previous.getReferencedTypes(source));
+        }
+    }
+
+    /**
+     * Add the entries of another dependency index.
+     *
+     * @param other The other dependency index.
+     */
+    public void addAll(final DependencyIndex other) {
+        for (final String source : other.declaredTypes.keySet()) {
+            copy(other, source);
+        }
+    }
+
+    /**
+     * Get the source files that must be processed again because they directly or indirectly reference the types
+     * declared by changed or deleted source files.
+     *
+     * @param changedSources The paths of the changed or deleted source files.
+     * @return The paths of the changed source files and the source files that depend on them.
+     */
+    public Set<String> getDependents(final Collection<String> changedSources) {
+        final Map<String, Set<String>> referencingSources = new HashMap<String, Set<String>>();
+        for (final Map.Entry<String, Set<String>> entry : referencedTypes.entrySet()) {
+            for (final String type : entry.getValue()) {
+                getNames(referencingSources, type).add(entry.getKey());
+            }
+        }
+        final Set<String> dependents = new HashSet<String>(changedSources);
+        final LinkedList<String> queue = new LinkedList<String>(changedSources);
+        while (!queue.isEmpty()) {
+            final Set<String> types = declaredTypes.get(queue.removeFirst());
+            if (types != null) {
+                for (final String type : types) {
+                    final Set<String> sources = referencingSources.get(type);
+                    if (sources != null) {
+                        for (final String source : sources) {
+                            if (dependents.add(source)) {
+                                queue.add(source);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * Get the source files that may reference a type declared for the first time by the source files of another
+     * index. A reference that could not be resolved is recorded by its simple name and a new type in the same
+     * package as the referencing source file can shadow a type of the same simple name imported by a wildcard, so
+     * the references are matched by simple name.
+     *
+     * @param processed The dependency index of the source files that were processed again.
+     * @return The paths of the other source files in this index that may reference one of the new types.
+     */
+    public Set<String> getSourcesReferencingNewTypes(final DependencyIndex processed) {
+        final Set<String> existingTypes = new HashSet<String>();
+        for (final Set<String> types : declaredTypes.values()) {
+            existingTypes.addAll(types);
+        }
+        final Set<String> newNames = new HashSet<String>();
+        for (final Set<String> types : processed.declaredTypes.values()) {
+            for (final String type : types) {
+                if (!existingTypes.contains(type)) {
+                    newNames.add(getSimpleName(type));
+                }
+            }
+        }
+        final Set<String> sources = new HashSet<String>();
+        if (!newNames.isEmpty()) {
+            for (final Map.Entry<String, Set<String>> entry : referencedTypes.entrySet()) {
+                if (!processed.declaredTypes.containsKey(entry.getKey())) {
+                    for (final String type : entry.getValue()) {
+                        if (newNames.contains(getSimpleName(type))) {
+                            sources.add(entry.getKey());
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Get the simple name of a top-level type.
+     *
+     * @param type The qualified name of the type.
+     * @return The simple name of the type.
+     */
+    private static String getSimpleName(final String type) {
+        return type.substring(type.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Get the types referenced by a source file excluding the types it declares itself.
+     *
+     * @param source The source file path.
+     * @return The qualified names of the referenced types.
+     */
+    private Set<String> getReferencedTypes(final String source) {
+        final Set<String> types = referencedTypes.get(source);
+        if (types == null) {
+            return Collections.emptySet();
+        }
+        final Set<String> referenced = new TreeSet<String>(types);
+        final Set<String> declared = declaredTypes.get(source);
+        if (declared != null) {
+            referenced.removeAll(declared);
+        }
+        return referenced;
+    }
+
+    /**
+     * Get the set of names mapped to a key creating it if necessary.
+     *
+     * @param map The map.
+     * @param key The key.
+     * @return The set of names.
+     */
+    private static Set<String> getNames(final Map<String, Set<String>> map, final String key) {
+        Set<String> names = map.get(key);
+        if (names == null) {
+            names = new TreeSet<String>();
+            map.put(key, names);
+        }
+        return names;
+    }
+
+    /**
+     * Add a name to the table of distinct names if it is not already there.
+     *
+     * @param ids   Map the names in the table to their position.
+     * @param names The table of names.
+     * @param name  The name.
+     */
+    private static void addName(final Map<String, Integer> ids, final List<String> names, final String name) {
+        if (!ids.containsKey(name)) {
+            ids.put(name, names.size());
+            names.add(name);
+        }
+    }
+
+    /**
+     * Write a set of names as their positions in the table of distinct names.
+     *
+     * @param out   The output stream.
+     * @param ids   Map the names in the table to their position.
+     * @param names The set of names.
+     * @throws IOException If there was a problem writing to the output stream.
+     */
+    private static void writeNames(final DataOutputStream out, final Map<String, Integer> ids,
+                                   final Set<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (final String name : names) {
+            out.writeInt(ids.get(name));
+        }
+    }
+
+    /**
+     * Read a set of names stored as their positions in the table of distinct names.
+     *
+     * @param in    The input stream.
+     * @param names The table of names.
+     * @return The set of names.
+     * @throws IOException If there was a problem reading from the input stream.
+     */
+    private static Set<String> readNames(final DataInputStream in, final String[] names) throws IOException {
+        final Set<String> result = new TreeSet<String>();
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            result.add(names[in.readInt()]);
+        }
+        return result;
+    }
+
+    /**
+     * Collects the qualified names of the top-level types referenced by the elements it scans. References to
+     * nested types are recorded as references to their top-level type.
+     */
+    private static class ReferenceCollector extends CtScanner {
+
+        /**
+         * The qualified names of the referenced top-level types.
+         */
+        private final Set<String> types;
+
+        /**
+         * Initialise the collector.
+         *
+         * @param types Receives the qualified names of the referenced top-level types.
+         */
+        ReferenceCollector(final Set<String> types) {
+            this.types = types;
+        }
+
+        /**
+         * Record a type reference and then scan its type arguments.
+         *
+         * @param reference The type reference.
+         * @param <T>       The referenced type.
+         */
+        @Override
+        public <T> void visitCtTypeReference(final CtTypeReference<T> reference) {
+            final String name = reference.getQualifiedName();
+            if (!reference.isPrimitive() && name != null) {
+                final int nested = name.indexOf('$');
+                types.add(nested == -1 ? name : name.substring(0, nested));
+            }
+            super.visitCtTypeReference(reference);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helper methods used to calculate the SHA-1 digests that identify source files, processors and class paths.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public final class Digests {
+
+    /**
+     * The digest algorithm.
+     */
+    private static final String ALGORITHM = "SHA-1";
+    /**
+     * The size of the buffer used when reading files.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Used to convert the digest to a hexadecimal string.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Prevent instantiation.
+     */
+    private Digests() {
+    }
+
+    /**
+     * Calculate the digest of a file's contents.
+     *
+     * @param file The file.
+     * @return The digest as a hexadecimal string.
+     * @throws IOException If there was a problem reading the file.
+     */
+    public static String digest(final File file) throws IOException {
+        final MessageDigest messageDigest = newMessageDigest();
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int count = in.read(buffer);
+            while (count != -1) {
+                messageDigest.update(buffer, 0, count);
+                count = in.read(buffer);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(messageDigest.digest());
+    }
+
+    /**
+     * Calculate the digest of a string.
+     *
+     * @param value The string.
+     * @return The digest as a hexadecimal string.
+     */
+    public static String digest(final String value) {
+        final MessageDigest messageDigest = newMessageDigest();
+        try {
+            messageDigest.update(value.getBytes("UTF-8"));
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return toHex(messageDigest.digest());
+    }
+
+    /**
+     * Create a new message digest for the SHA-1 algorithm which every JVM is required to support.
+     *
+     * @return The message digest.
+     */
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Convert a byte array to a hexadecimal string.
+     *
+     * @param bytes The byte array.
+     * @return The hexadecimal string.
+     */
+    private static String toHex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
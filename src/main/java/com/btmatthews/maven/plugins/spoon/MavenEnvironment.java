@@ -0,0 +1,326 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import spoon.support.StandardEnvironment;
+import spoon.support.builder.CompiledModel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An extension of the standard Spoon environment that carries the settings the Maven plugin passes to
+ * {@link spoon.support.builder.JDTCompiler}.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class MavenEnvironment extends StandardEnvironment {
+
+    /**
+     * Folders containing source files that the compiler may use to resolve referenced types without building
+     * them into the model.
+     */
+    private final List<File> sourcePath = new ArrayList<File>();
+    /**
+     * The number of threads the compiler uses to read and parse source files.
+     */
+    private int compilerThreads = 1;
+    /**
+     * The class path elements used to resolve referenced types or {@code null} to use the class path of the context
+     * class loader.
+     */
+    private List<String> classpath;
+    /**
+     * Collects the timing and memory metrics of the build phases.
+     */
+    private BuildMetrics metrics = BuildMetrics.DISABLED;
+    /**
+     * Receives the summary of the problems reported by the compiler.
+     */
+    private CompilerDiagnostics diagnostics = new CompilerDiagnostics();
+    /**
+     * The number of compilation errors after which the build is aborted or {@code 0} if there is no limit.
+     */
+    private int maxErrors;
+    /**
+     * Indicates whether the compiler keeps every problem it reports until it is discarded.
+     */
+    private boolean retainProblems;
+    /**
+     * Indicates whether the compiler parses, resolves and analyses the method bodies.
+     */
+    private boolean methodBodies = true;
+    /**
+     * Indicates whether the compiler runs flow analysis on the method bodies.
+     */
+    private boolean flowAnalysis = true;
+    /**
+     * Indicates whether the compiler parses and resolves doc comments.
+     */
+    private boolean javadoc = true;
+    /**
+     * Indicates whether the compilation units are kept after the model has been built.
+     */
+    private boolean retainCompiledModel;
+    /**
+     * The compilation units kept after the model has been built or {@code null} if they were released.
+     */
+    private CompiledModel compiledModel;
+    /**
+     * The time in nanoseconds the compiler spent on flow analysis.
+     */
+    private long analysisTime;
+
+    /**
+     * Get the folders containing source files that the compiler may use to resolve referenced types.
+     *
+     * @return The source path.
+     */
+    public List<File> getSourcePathFolders() {
+        return Collections.unmodifiableList(sourcePath);
+    }
+
+    /**
+     * Add a folder containing source files that the compiler may use to resolve referenced types.
+     *
+     * @param folder The folder.
+     */
+    public void addSourcePathFolder(final File folder) {
+        sourcePath.add(folder);
+    }
+
+    /**
+     * Get the number of threads the compiler uses to read and parse source files.
+     *
+     * @return The number of threads. A value of {@code 1} means the source files are parsed serially.
+     */
+    public int getCompilerThreads() {
+        return compilerThreads;
+    }
+
+    /**
+     * Set the number of threads the compiler uses to read and parse source files.
+     *
+     * @param compilerThreads The number of threads.
+     */
+    public void setCompilerThreads(final int compilerThreads) {
+        this.compilerThreads = compilerThreads;
+    }
+
+    /**
+     * Get the class path elements used to resolve referenced types.
+     *
+     * @return The class path elements or {@code null} if the class path of the context class loader is used.
+     */
+    public List<String> getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * Set the class path elements used to resolve referenced types.
+     *
+     * @param classpath The class path elements.
+     */
+    public void setClasspath(final List<String> classpath) {
+        this.classpath = classpath;
+    }
+
+    /**
+     * Get the object that collects the timing and memory metrics of the build phases.
+     *
+     * @return The metrics.
+     */
+    public BuildMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the object that collects the timing and memory metrics of the build phases.
+     *
+     * @param metrics The metrics.
+     */
+    public void setMetrics(final BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the summary of the problems reported by the compiler.
+     *
+     * @return The diagnostics.
+     */
+    public CompilerDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Set the object that receives the problems reported by the compiler.
+     *
+     * @param diagnostics The diagnostics.
+     */
+    public void setDiagnostics(final CompilerDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Get the number of compilation errors after which the build is aborted.
+     *
+     * @return The number of errors or {@code 0} if there is no limit.
+     */
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * Set the number of compilation errors after which the build is aborted.
+     *
+     * @param maxErrors The number of errors or {@code 0} if there is no limit.
+     */
+    public void setMaxErrors(final int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Check whether the compiler keeps every problem it reports until it is discarded.
+     *
+     * @return {@code true} if the problems are kept.
+     */
+    public boolean isRetainProblems() {
+        return retainProblems;
+    }
+
+    /**
+     * Set whether the compiler keeps every problem it reports until it is discarded.
+     *
+     * @param retainProblems {@code true} if the problems are kept.
+     */
+    public void setRetainProblems(final boolean retainProblems) {
+        this.retainProblems = retainProblems;
+    }
+
+    /**
+     * Check whether the compiler parses, resolves and analyses the method bodies.
+     *
+     * @return {@code true} if the method bodies are built into the model.
+     */
+    public boolean isMethodBodies() {
+        return methodBodies;
+    }
+
+    /**
+     * Set whether the compiler parses, resolves and analyses the method bodies.
+     *
+     * @param methodBodies {@code true} if the method bodies are built into the model.
+     */
+    public void setMethodBodies(final boolean methodBodies) {
+        this.methodBodies = methodBodies;
+    }
+
+    /**
+     * Check whether the compiler runs flow analysis on the method bodies.
+     *
+     * @return {@code true} if flow analysis is run.
+     */
+    public boolean isFlowAnalysis() {
+        return flowAnalysis;
+    }
+
+    /**
+     * Set whether the compiler runs flow analysis on the method bodies.
+     *
+     * @param flowAnalysis {@code true} if flow analysis is run.
+     */
+    public void setFlowAnalysis(final boolean flowAnalysis) {
+        this.flowAnalysis = flowAnalysis;
+    }
+
+    /**
+     * Check whether the compiler parses and resolves doc comments.
+     *
+     * @return {@code true} if doc comments are built into the model.
+     */
+    public boolean isJavadoc() {
+        return javadoc;
+    }
+
+    /**
+     * Set whether the compiler parses and resolves doc comments.
+     *
+     * @param javadoc {@code true} if doc comments are built into the model.
+     */
+    public void setJavadoc(final boolean javadoc) {
+        this.javadoc = javadoc;
+    }
+
+    /**
+     * Check whether the compilation units are kept after the model has been built so that the model can be built
+     * again for other factories.
+     *
+     * @return {@code true} if the compilation units are kept.
+     */
+    public boolean isRetainCompiledModel() {
+        return retainCompiledModel;
+    }
+
+    /**
+     * Set whether the compilation units are kept after the model has been built so that the model can be built
+     * again for other factories.
+     *
+     * @param retainCompiledModel {@code true} if the compilation units are kept.
+     */
+    public void setRetainCompiledModel(final boolean retainCompiledModel) {
+        this.retainCompiledModel = retainCompiledModel;
+    }
+
+    /**
+     * Get the compilation units kept after the model has been built.
+     *
+     * @return The compiled model or {@code null} if the compilation units were not kept.
+     */
+    public CompiledModel getCompiledModel() {
+        return compiledModel;
+    }
+
+    /**
+     * Set the compilation units kept after the model has been built.
+     *
+     * @param compiledModel The compiled model.
+     */
+    public void setCompiledModel(final CompiledModel compiledModel) {
+        this.compiledModel = compiledModel;
+    }
+
+    /**
+     * Get the time the compiler spent on flow analysis. It is measured whether or not metrics are collected.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getAnalysisTime() {
+        return analysisTime;
+    }
+
+    /**
+     * Add to the time the compiler spent on flow analysis.
+     *
+     * @param time The time in nanoseconds.
+     */
+    public void addAnalysisTime(final long time) {
+        analysisTime += time;
+    }
+}
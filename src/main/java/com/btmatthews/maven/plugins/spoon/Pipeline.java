@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * A named set of processors that is applied to the shared model of an execution and whose processed source files
+ * are written to their own output directory.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class Pipeline implements Serializable {
+
+    /**
+     * The serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The name of the pipeline.
+     */
+    private String name;
+    /**
+     * The processors. A processor can be a fully qualified class name or the path for a Groovy script.
+     */
+    private String[] processors;
+    /**
+     * The directory the processed source files are written to.
+     */
+    private File outputDirectory;
+
+    /**
+     * Get the name of the pipeline.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Set the name of the pipeline.
+     *
+     * @param name The name.
+     */
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get the processors.
+     *
+     * @return The class names of the processors or the paths of Groovy processor scripts.
+     */
+    public String[] getProcessors() {
+        return processors == null ? new String[0] : processors;
+    }
+
+    /**
+     * Set the processors.
+     *
+     * @param processors The class names of the processors or the paths of Groovy processor scripts.
+     */
+    public void setProcessors(final String[] processors) {
+        this.processors = processors;
+    }
+
+    /**
+     * Get the directory the processed source files are written to.
+     *
+     * @return The output directory.
+     */
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Set the directory the processed source files are written to.
+     *
+     * @param outputDirectory The output directory.
+     */
+    public void setOutputDirectory(final File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The class loader used to load processors and Groovy scripts. It is a child of the plugin class loader that adds
+ * the compile class path of the project so the plugin class loader never has to be modified.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class ProcessorClassLoader extends URLClassLoader {
+
+    /**
+     * The compiled Groovy script classes that were defined with this class loader as their parent.
+     */
+    private final ConcurrentMap<String, Class<?>> scriptClasses = new ConcurrentHashMap<String, Class<?>>();
+    /**
+     * The digest that identifies the contents of the compile class path.
+     */
+    private final String classpathDigest;
+
+    /**
+     * Initialise the class loader.
+     *
+     * @param urls            The compile class path of the project.
+     * @param parent          The plugin class loader.
+     * @param classpathDigest The digest that identifies the contents of the compile class path.
+     */
+    public ProcessorClassLoader(final URL[] urls, final ClassLoader parent, final String classpathDigest) {
+        super(urls, parent);
+        this.classpathDigest = classpathDigest;
+    }
+
+    /**
+     * Get the digest that identifies the contents of the compile class path. It changes whenever an element of the
+     * class path is modified.
+     *
+     * @return The digest.
+     */
+    public String getClasspathDigest() {
+        return classpathDigest;
+    }
+
+    /**
+     * Get the compiled Groovy script classes that were defined with this class loader as their parent. They are
+     * discarded along with the class loader.
+     *
+     * @return The script classes keyed by the script cache key.
+     */
+    public ConcurrentMap<String, Class<?>> getScriptClasses() {
+        return scriptClasses;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of the class loaders used to load processors. There is one class loader for each distinct compile class
+ * path so modules with the same dependencies share the loaded processor classes. The class path elements are
+ * identified by their modification times and lengths so a module rebuilt in the same session gets a new class
+ * loader, and the class loader it replaces is closed as soon as it is no longer in use. A class loader that is no
+ * longer in use is kept for a short time in case another module needs it and is then evicted and closed. This keeps
+ * the memory used by a long-lived Maven process flat.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public final class ProcessorClassLoaders {
+
+    /**
+     * The maximum number of unused class loaders that are kept.
+     */
+    private static final int MAX_IDLE = 4;
+    /**
+     * The time in milliseconds an unused class loader is kept.
+     */
+    private static final long IDLE_TIMEOUT = 5 * 60 * 1000L;
+    /**
+     * The cached class loaders keyed by class path and the modification times and lengths of its elements.
+     */
+    private static final Map<List<String>, Entry> ENTRIES = new HashMap<List<String>, Entry>();
+
+    /**
+     * Prevent instantiation.
+     */
+    private ProcessorClassLoaders() {
+    }
+
+    /**
+     * Get the class loader for a class path creating it if necessary. Each call must be matched by a call to
+     * {@link #release(ProcessorClassLoader)}.
+     *
+     * @param classpathElements The compile class path elements.
+     * @return The class loader.
+     * @throws MalformedURLException If a class path element is invalid.
+     */
+    public static ProcessorClassLoader acquire(final List<String> classpathElements) throws MalformedURLException {
+        final List<String> paths = new ArrayList<String>(new LinkedHashSet<String>(classpathElements));
+        final List<String> key = new ArrayList<String>(paths.size());
+        for (final String path : paths) {
+            key.add(stamp(new File(path)));
+        }
+        synchronized (ENTRIES) {
+            evictIdle(System.currentTimeMillis());
+            Entry entry = ENTRIES.get(key);
+            if (entry == null) {
+                replace(paths);
+                final URL[] urls = new URL[paths.size()];
+                for (int i = 0; i < urls.length; i++) {
+                    urls[i] = new File(paths.get(i)).toURI().toURL();
+                }
+                entry = new Entry(paths, new ProcessorClassLoader(urls, ProcessorClassLoaders.class.getClassLoader(),
+                        Digests.digest(key.toString())));
+                ENTRIES.put(key, entry);
+            }
+            entry.references++;
+            return entry.classLoader;
+        }
+    }
+
+    /**
+     * Release a class loader obtained from {@link #acquire(List)}.
+     *
+     * @param classLoader The class loader.
+     */
+    public static void release(final ProcessorClassLoader classLoader) {
+        synchronized (ENTRIES) {
+            final long now = System.currentTimeMillis();
+            final Iterator<Entry> iterator = ENTRIES.values().iterator();
+            while (iterator.hasNext()) {
+                final Entry entry = iterator.next();
+                if (entry.classLoader == classLoader) {
+                    entry.references--;
+                    entry.lastUsed = now;
+                    if (entry.stale && entry.references == 0) {
+                        iterator.remove();
+                        close(entry.classLoader);
+                    }
+                }
+            }
+            evictIdle(now);
+        }
+    }
+
+    /**
+     * Discard the class loaders for the same class path whose elements have since been modified. A class loader
+     * that is still in use is marked as stale and closed when it is released.
+     *
+     * @param paths The class path elements.
+     */
+    private static void replace(final List<String> paths) {
+        final Iterator<Entry> iterator = ENTRIES.values().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.paths.equals(paths)) {
+                if (entry.references == 0) {
+                    iterator.remove();
+                    close(entry.classLoader);
+                } else {
+                    entry.stale = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Identify the current contents of a class path element by its path, modification time and length. The
+     * modification time of a folder does not change when the files in it are modified so for a folder the latest
+     * modification time and the total length of the files it contains are used.
+     *
+     * @param file The class path element.
+     * @return The identity of the class path element.
+     */
+    static String stamp(final File file) {
+        final long[] stamp = new long[2];
+        stamp(file, stamp);
+        return file.getAbsolutePath() + ':' + stamp[0] + ':' + stamp[1];
+    }
+
+    /**
+     * Accumulate the latest modification time and the total length of a file or the files in a folder.
+     *
+     * @param file  The file or folder.
+     * @param stamp Receives the latest modification time and the total length.
+     */
+    private static void stamp(final File file, final long[] stamp) {
+        stamp[0] = Math.max(stamp[0], file.lastModified());
+        final File[] children = file.listFiles();
+        if (children == null) {
+            stamp[1] += file.length();
+        } else {
+            for (final File child : children) {
+                stamp(child, stamp);
+            }
+        }
+    }
+
+    /**
+     * Evict the unused class loaders that have timed out and the least recently used class loaders that exceed the
+     * maximum number of unused class loaders.
+     *
+     * @param now The current time.
+     */
+    private static void evictIdle(final long now) {
+        int idle = 0;
+        for (final Entry entry : ENTRIES.values()) {
+            if (entry.references == 0) {
+                idle++;
+            }
+        }
+        while (idle > 0) {
+            Map.Entry<List<String>, Entry> oldest = null;
+            for (final Map.Entry<List<String>, Entry> entry : ENTRIES.entrySet()) {
+                if (entry.getValue().references == 0
+                        && (oldest == null || entry.getValue().lastUsed < oldest.getValue().lastUsed)) {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null || (idle <= MAX_IDLE && now - oldest.getValue().lastUsed < IDLE_TIMEOUT)) {
+                break;
+            }
+            ENTRIES.remove(oldest.getKey());
+            close(oldest.getValue().classLoader);
+            idle--;
+        }
+    }
+
+    /**
+     * Close a class loader to release the jar files it has opened. Class loaders can only be closed on Java 7 or
+     * later so on older JVMs they are left for the garbage collector.
+     *
+     * @param classLoader The class loader.
+     */
+    private static void close(final ProcessorClassLoader classLoader) {
+        if (classLoader instanceof Closeable) {
+            try {
+                ((Closeable) classLoader).close();
+            } catch (final IOException e) {
+                // ignore because the class loader is no longer used
+            }
+        }
+    }
+
+    /**
+     * A cached class loader.
+     */
+    private static class Entry {
+
+        /**
+         * The class path elements.
+         */
+        private final List<String> paths;
+        /**
+         * The class loader.
+         */
+        private final ProcessorClassLoader classLoader;
+        /**
+         * Indicates whether the class path elements have been modified since the class loader was created.
+         */
+        private boolean stale;
+        /**
+         * The number of executions using the class loader.
+         */
+        private int references;
+        /**
+         * The time the class loader was last released.
+         */
+        private long lastUsed;
+
+        /**
+         * Initialise the entry.
+         *
+         * @param paths       The class path elements.
+         * @param classLoader The class loader.
+         */
+        Entry(final List<String> paths, final ProcessorClassLoader classLoader) {
+            this.paths = paths;
+            this.classLoader = classLoader;
+        }
+    }
+}
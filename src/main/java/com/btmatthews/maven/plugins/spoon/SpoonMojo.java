@@ -16,25 +16,36 @@
 
 package com.btmatthews.maven.plugins.spoon;
 
-import com.btmatthews.maven.plugins.spoon.processors.GroovyProcessor;
+import com.btmatthews.maven.plugins.spoon.daemon.DaemonClient;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
-import spoon.processing.Builder;
-import spoon.processing.ProcessingManager;
-import spoon.reflect.Factory;
-import spoon.reflect.declaration.CtElement;
-import spoon.support.DefaultCoreFactory;
-import spoon.support.JavaOutputProcessor;
-import spoon.support.QueueProcessingManager;
-import spoon.support.StandardEnvironment;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.Scanner;
+import org.sonatype.plexus.build.incremental.BuildContext;
+import spoon.support.builder.SharedNameEnvironment;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -45,10 +56,26 @@ import java.util.regex.Pattern;
 @Mojo(
         name = "spoon",
         defaultPhase = LifecyclePhase.PROCESS_SOURCES,
-        requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME,
-        configurator = "include-project-dependencies")
+        requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME)
 public class SpoonMojo extends AbstractMojo {
 
+    /**
+     * The pattern that selects every Java source file in a folder.
+     */
+    private static final String JAVA_FILES = "**/*.java";
+    /**
+     * Guards {@link #activeExecutions} and {@link #finishedReactor}.
+     */
+    private static final Object EXECUTIONS_LOCK = new Object();
+    /**
+     * The number of executions of the goal in progress in this JVM.
+     */
+    private static int activeExecutions;
+    /**
+     * The projects of the most recent reactor whose last project has finished.
+     */
+    private static Reference<List<MavenProject>> finishedReactor = new WeakReference<List<MavenProject>>(null);
+
     /**
      * The Java compliance level.
      */
@@ -61,9 +88,18 @@ public class SpoonMojo extends AbstractMojo {
     private File[] inputSources;
     /**
      * A list of Spoon processors. A processor can be a fully qualified class name or the path for a Groovy script.
+     * The processed source files are written to {@link #outputDirectory} which is added as a compile source root.
      */
-    @Parameter(required = true)
-    private String[] processors;
+    @Parameter
+    private String[] processors = new String[0];
+    /**
+     * A list of named processor pipelines. Each pipeline is applied after the {@link #processors} to the same model
+     * so that the source files are only parsed and resolved once, and its processed source files are written to the
+     * output directory of the pipeline. The output directories of the pipelines are not added as compile source
+     * roots.
+     */
+    @Parameter
+    private Pipeline[] pipelines = new Pipeline[0];
     /**
      * The Maven project descriptor.
      */
@@ -74,6 +110,215 @@ public class SpoonMojo extends AbstractMojo {
      */
     @Parameter(property = "project", required = true, readonly = true)
     private MavenProject project;
+    /**
+     * The projects in the reactor. The shared jar files are closed once the last project has been processed and no
+     * other project is still being processed.
+     */
+    @Parameter(defaultValue = "${reactorProjects}", required = true, readonly = true)
+    private List<MavenProject> reactorProjects;
+    /**
+     * Used to detect which input sources changed during incremental builds in the IDE and to notify the IDE of the
+     * output files that were written or deleted.
+     */
+    @Component
+    private BuildContext buildContext;
+    /**
+     * If {@code true} then only source files that have changed since the previous build and the source files that
+     * reference the types they declare are processed. A full rebuild is performed if the processors, class path or
+     * source compliance level have changed. Incremental builds in the IDE are always performed this way.
+     */
+    @Parameter(property = "spoon.incremental", defaultValue = "false")
+    private boolean incremental;
+    /**
+     * The file used to persist the build state between incremental builds.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/spoon-state.properties", required = true)
+    private File stateFile;
+    /**
+     * The file used to persist the index of the types declared and referenced by each source file between
+     * incremental builds. The index is used to process the source files that depend on a changed source file.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/spoon-dependencies.bin", required = true)
+    private File dependencyIndexFile;
+    /**
+     * If {@code true} then the output directory is restored from the build cache when the input sources, compile
+     * class path, processors and compliance level match a previous execution.
+     */
+    @Parameter(property = "spoon.buildCache", defaultValue = "false")
+    private boolean buildCache;
+    /**
+     * The build cache directory. This can be on a shared mount to share the cache between checkouts and build
+     * agents.
+     */
+    @Parameter(property = "spoon.buildCacheDirectory", defaultValue = "${user.home}/.m2/spoon-cache", required = true)
+    private File buildCacheDirectory;
+    /**
+     * The number of threads used to read and parse the source files. The type bindings are always resolved
+     * serially so the model is the same as when the source files are parsed by a single thread.
+     */
+    @Parameter(property = "spoon.compilerThreads", defaultValue = "1")
+    private int compilerThreads;
+    /**
+     * The number of threads used to apply processors that are annotated with
+     * {@link com.btmatthews.maven.plugins.spoon.processing.ReadOnly} or
+     * {@link com.btmatthews.maven.plugins.spoon.processing.TypeLocal}. Other processors are always applied serially.
+     */
+    @Parameter(property = "spoon.processingThreads", defaultValue = "1")
+    private int processingThreads;
+    /**
+     * The number of threads used to pretty-print the processed types.
+     */
+    @Parameter(property = "spoon.outputThreads", defaultValue = "1")
+    private int outputThreads;
+    /**
+     * The number of worker threads shared by the parsing, processing and output phases of every Spoon execution in
+     * the build session. A value of {@code 0} means the number of available processors. A different value only takes
+     * effect once no other execution is running so the value should be the same for every module.
+     */
+    @Parameter(property = "spoon.workerThreads", defaultValue = "0")
+    private int workerThreads;
+    /**
+     * The memory in megabytes that the models of concurrent Spoon executions in the build session may use. An
+     * execution waits until the memory it is estimated to need is released by other executions. A value of
+     * {@code 0} means three quarters of the maximum heap size. A different value only takes effect once no other
+     * execution is running so the value should be the same for every module.
+     */
+    @Parameter(property = "spoon.memoryLimit", defaultValue = "0")
+    private int memoryLimit;
+    /**
+     * If {@code true} and every processor is annotated with
+     * {@link com.btmatthews.maven.plugins.spoon.processing.ReadOnly} or
+     * {@link com.btmatthews.maven.plugins.spoon.processing.TypeLocal} then each top-level type is passed through the
+     * whole chain of processors and written as soon as the last processor has finished with it. Writing then
+     * overlaps with processing. The processors must not depend on the processed state of other top-level types.
+     */
+    @Parameter(property = "spoon.streaming", defaultValue = "false")
+    private boolean streaming;
+    /**
+     * The character encoding used to write the processed source files.
+     */
+    @Parameter(property = "project.build.sourceEncoding")
+    private String encoding;
+    /**
+     * If {@code true} then Groovy scripts are compiled with {@code @CompileStatic}. The scripts must access the
+     * element and factory through the typed {@code element} and {@code factory} properties.
+     */
+    @Parameter(property = "spoon.compileStatic", defaultValue = "false")
+    private boolean compileStatic;
+    /**
+     * The directory used to cache the byte code of compiled Groovy scripts between builds.
+     */
+    @Parameter(property = "spoon.scriptCacheDirectory", defaultValue = "${user.home}/.m2/spoon-cache/scripts")
+    private File scriptCacheDirectory;
+    /**
+     * If {@code true} then the wall time, CPU time and allocated bytes of each phase are logged and written to
+     * {@link #metricsFile}. Metrics are off by default because sampling the CPU time and allocated bytes of every
+     * phase adds to the cost of the build.
+     */
+    @Parameter(property = "spoon.metrics", defaultValue = "false")
+    private boolean metrics;
+    /**
+     * The JSON file that the phase metrics are written to.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/spoon-metrics.json", required = true)
+    private File metricsFile;
+    /**
+     * If greater than {@code 0} then the source files are built, processed and written in batches of approximately
+     * this many files so that peak memory depends on the batch size rather than the size of the project. A package
+     * is never split across batches. Types declared in other batches are resolved from the input sources without
+     * being built into the model so processors cannot see their declarations.
+     */
+    @Parameter(property = "spoon.batchSize", defaultValue = "0")
+    private int batchSize;
+    /**
+     * If {@code true} then the compiler keeps every problem it reports until the model has been processed. By
+     * default only a compact summary of the problems is kept so that the compiler state can be released as soon as
+     * the model has been built.
+     */
+    @Parameter(property = "spoon.retainCompilerProblems", defaultValue = "false")
+    private boolean retainCompilerProblems;
+    /**
+     * The number of compilation errors after which the build is aborted. A value of {@code 0} means the build
+     * continues regardless of compilation errors.
+     */
+    @Parameter(property = "spoon.maxErrors", defaultValue = "0")
+    private int maxErrors;
+    /**
+     * The JSON file that the compilation errors are written to.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/spoon-diagnostics.json", required = true)
+    private File diagnosticsFile;
+    /**
+     * The Ant-style patterns, relative to each input source folder, that select the source files to process. By
+     * default every Java source file is processed.
+     */
+    @Parameter
+    private String[] includes;
+    /**
+     * The Ant-style patterns, relative to each input source folder, that exclude source files from processing.
+     * Excluded source files are not built into the model or written to the output directory but types declared in
+     * them can still be referenced by the processed source files.
+     */
+    @Parameter
+    private String[] excludes;
+    /**
+     * If {@code true} then the excluded source files are copied unchanged to the output directory so that it
+     * contains a complete source tree.
+     */
+    @Parameter(property = "spoon.copyExcluded", defaultValue = "false")
+    private boolean copyExcluded;
+    /**
+     * If {@code true} then the compiler always runs flow analysis and if {@code false} it never does. By default
+     * flow analysis is skipped when every processor is annotated with
+     * {@link com.btmatthews.maven.plugins.spoon.processing.CompilerRequirements} and does not need it. Problems such
+     * as unreachable code are not reported when flow analysis is skipped.
+     */
+    @Parameter(property = "spoon.flowAnalysis")
+    private Boolean flowAnalysis;
+    /**
+     * If {@code true} then the compiler always parses and resolves doc comments and if {@code false} it never does.
+     * By default doc comments are skipped when the source files are copied unchanged to the output directory and
+     * every processor is annotated with {@link com.btmatthews.maven.plugins.spoon.processing.CompilerRequirements}
+     * and does not need them. Doc comments are missing from the processed source files when they are skipped.
+     */
+    @Parameter(property = "spoon.javadoc")
+    private Boolean javadoc;
+    /**
+     * If {@code true} then the source files are built, processed and written by a long-lived Spoon daemon that keeps
+     * the JIT-compiled code, the processor class loaders, compiled Groovy scripts and opened class path archives warm
+     * between builds. The daemon is started if it is not already running. If it cannot be reached the source files
+     * are processed in the Maven build.
+     */
+    @Parameter(property = "spoon.daemon", defaultValue = "false")
+    private boolean daemon;
+    /**
+     * The file in which the Spoon daemon publishes the port it listens on and the token clients must present.
+     */
+    @Parameter(property = "spoon.daemonFile", defaultValue = "${user.home}/.m2/spoon-daemon.properties")
+    private File daemonFile;
+    /**
+     * The version of the plugin. Output generated by a different version of the plugin, and so possibly a different
+     * version of the Spoon pretty-printer, is never reused.
+     */
+    @Parameter(defaultValue = "${plugin.version}", required = true, readonly = true)
+    private String pluginVersion;
+    /**
+     * The plugin and its dependencies which are used as the class path of the Spoon daemon.
+     */
+    @Parameter(defaultValue = "${plugin.artifacts}", required = true, readonly = true)
+    private List<Artifact> pluginArtifacts;
+    /**
+     * The time in nanoseconds spent building the models during this execution.
+     */
+    private long buildTime;
+    /**
+     * The time in nanoseconds the compiler spent on flow analysis during this execution.
+     */
+    private long analysisTime;
+    /**
+     * Indicates whether the compiler parsed doc comments during this execution.
+     */
+    private boolean javadocParsed;
 
     /**
      * @throws MojoExecutionException
@@ -82,13 +327,27 @@ public class SpoonMojo extends AbstractMojo {
     public void execute() throws MojoExecutionException, MojoFailureException {
         final int complianceLevel = getComplianceLevel();
         if (complianceLevel >= 5 && complianceLevel <= 8) {
+            synchronized (EXECUTIONS_LOCK) {
+                activeExecutions++;
+            }
             try {
+                checkPipelines();
                 outputDirectory.mkdirs();
+                for (final Pipeline pipeline : pipelines) {
+                    pipeline.getOutputDirectory().mkdirs();
+                }
                 doExecute(complianceLevel);
-                project.addCompileSourceRoot(outputDirectory.getAbsolutePath());
+                if (processors.length > 0 || pipelines.length == 0) {
+                    project.addCompileSourceRoot(outputDirectory.getAbsolutePath());
+                }
+            } catch (final TooManyErrorsException e) {
+                getLog().error(e.getMessage());
+                throw new MojoFailureException(e.getMessage());
             } catch (final Exception e) {
                 getLog().error(e.getMessage(), e);
                 throw new MojoExecutionException(e.getMessage(), e);
+            } finally {
+                endExecution();
             }
         } else {
             final String message = "Invalid or unsupported source level. Must be 1.5, 1.6, 1.7 or 1.8";
@@ -97,6 +356,50 @@ public class SpoonMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * Close the jar files shared between the builds once the last project in the reactor has finished and no other
+     * execution is in progress, like the daemon does when its last request completes. In a parallel build the last
+     * project can finish before the others, so whichever execution finishes last closes the jar files.
+     */
+    private void endExecution() {
+        synchronized (EXECUTIONS_LOCK) {
+            activeExecutions--;
+            if (isLastProject()) {
+                finishedReactor = new WeakReference<List<MavenProject>>(reactorProjects);
+            }
+            if (activeExecutions == 0 && finishedReactor.get() == reactorProjects) {
+                SharedNameEnvironment.closeAll();
+            }
+        }
+    }
+
+    /**
+     * Determine whether the current project is the last project in the reactor.
+     *
+     * @return {@code true} if the current project is the last project in the reactor.
+     */
+    private boolean isLastProject() {
+        return reactorProjects == null || reactorProjects.isEmpty()
+                || reactorProjects.get(reactorProjects.size() - 1) == project;
+    }
+
+    /**
+     * Check that every pipeline has a unique name and an output directory.
+     *
+     * @throws MojoExecutionException If a pipeline is not configured correctly.
+     */
+    private void checkPipelines() throws MojoExecutionException {
+        final Set<String> names = new HashSet<String>();
+        for (final Pipeline pipeline : pipelines) {
+            if (pipeline.getName() == null || !names.add(pipeline.getName())) {
+                throw new MojoExecutionException("Every pipeline must have a unique name");
+            }
+            if (pipeline.getOutputDirectory() == null) {
+                throw new MojoExecutionException("Pipeline has no output directory: " + pipeline.getName());
+            }
+        }
+    }
+
     /**
      * Parse the source compliance level.
      *
@@ -120,32 +423,788 @@ public class SpoonMojo extends AbstractMojo {
         getLog().info("Source compliance level: 1." + complianceLevel);
         getLog().info("Write processed sources to: " + outputDirectory.getAbsolutePath());
 
-        final StandardEnvironment env = new StandardEnvironment();
-        env.setVerbose(false);
-        env.setDebug(false);
-        env.setComplianceLevel(complianceLevel);
-        final Factory factory = new Factory(new DefaultCoreFactory(), env);
+        if (buildContext.isIncremental() && !hasDelta()) {
+            getLog().info("No input sources or processor scripts changed");
+            return;
+        }
+        final boolean incrementalBuild = incremental || buildContext.isIncremental();
+
+        final long start = System.currentTimeMillis();
+        final BuildMetrics buildMetrics = metrics ? new BuildMetrics() : BuildMetrics.DISABLED;
+        final BuildMetrics.Sample sample = buildMetrics.sample();
+        BuildCache cache = null;
+        String cacheKey = null;
+        // the build cache only holds the output directory of the execution
+        if (buildCache && pipelines.length > 0) {
+            getLog().info("The build cache is not used with pipelines");
+        } else if (buildCache && !buildContext.isIncremental()) {
+            cache = new BuildCache(buildCacheDirectory, getLog());
+            cacheKey = getCacheKey(complianceLevel);
+            if (cache.restore(cacheKey, outputDirectory)) {
+                // the restored output does not match the recorded state of any incremental build
+                stateFile.delete();
+                buildContext.refresh(outputDirectory);
+                cache.logStatistics();
+                writeMetrics(buildMetrics, sample);
+                return;
+            }
+        }
 
-        final Builder builder = factory.getBuilder();
+        final CompilerDiagnostics diagnostics = new CompilerDiagnostics(getLog());
+        BuildState state = null;
+        try {
+            if (incrementalBuild) {
+                state = doIncrementalExecute(complianceLevel, buildMetrics, diagnostics);
+            } else {
+                // the outputs are only recorded if they are needed to populate the build cache
+                state = cache == null ? null : new BuildState(getFingerprint(complianceLevel));
+                buildBatches(complianceLevel, getSourceFiles(), buildMetrics, diagnostics, state, null);
+                copyExcludedFiles(state);
+            }
+        } finally {
+            if (diagnostics.getErrorCount() > 0 || diagnostics.getWarningCount() > 0) {
+                getLog().info("Compiler reported " + diagnostics);
+            }
+            diagnostics.write(diagnosticsFile);
+            if (diagnostics.getUnloggedErrorCount() > 0) {
+                getLog().error(diagnostics.getUnloggedErrorCount() + " more error(s) were not shown, see: "
+                        + diagnosticsFile.getAbsolutePath());
+            }
+        }
+        logOptionalPhases();
+
+        if (cache != null) {
+            final Set<String> outputs = new HashSet<String>();
+            for (final String path : state.getSources()) {
+                outputs.addAll(state.getOutputs(path));
+            }
+            cache.store(cacheKey, outputDirectory, outputs, System.currentTimeMillis() - start);
+            cache.logStatistics();
+        }
+        writeMetrics(buildMetrics, sample);
+    }
+
+    /**
+     * Check whether any of the input sources or processor scripts changed since the previous incremental build in
+     * the IDE.
+     *
+     * @return {@code true} if there were changes.
+     */
+    private boolean hasDelta() {
+        for (final File inputSource : inputSources) {
+            if (buildContext.hasDelta(inputSource)) {
+                return true;
+            }
+        }
+        final List<String> scripts = new ArrayList<String>(Arrays.asList(processors));
+        for (final Pipeline pipeline : pipelines) {
+            scripts.addAll(Arrays.asList(pipeline.getProcessors()));
+        }
+        for (final String processor : scripts) {
+            if (processor.endsWith(".groovy") && buildContext.hasDelta(new File(processor))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the source files that changed since the previous incremental build in the IDE.
+     *
+     * @return The absolute paths of the changed source files or {@code null} if this is not an incremental build
+     *         in the IDE.
+     */
+    private Set<String> getDelta() {
+        if (!buildContext.isIncremental()) {
+            return null;
+        }
+        final Set<String> delta = new HashSet<String>();
+        for (final File inputSource : inputSources) {
+            if (inputSource.isDirectory()) {
+                final Scanner scanner = buildContext.newScanner(inputSource);
+                scanner.setIncludes(new String[]{JAVA_FILES});
+                scanner.scan();
+                for (final String path : scanner.getIncludedFiles()) {
+                    delta.add(new File(inputSource, path).getAbsolutePath());
+                }
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Log how much of the time spent building the model was accounted for by flow analysis so that the cost of the
+     * optional compiler phases is visible. The times are measured whether or not {@link #metrics} is enabled. The
+     * cost of parsing doc comments cannot be separated from parsing so only whether they were parsed is logged.
+     */
+    private void logOptionalPhases() {
+        if (buildTime > 0) {
+            if (analysisTime > 0) {
+                getLog().info("Flow analysis: " + analysisTime / 1000000 + " ms of " + buildTime / 1000000
+                        + " ms building the model (" + analysisTime * 100 / buildTime + "%)");
+            } else {
+                getLog().info("Flow analysis: skipped (" + buildTime / 1000000 + " ms building the model)");
+            }
+            getLog().info(javadocParsed ? "Doc comments: parsed (cost not measured separately)"
+                    : "Doc comments: skipped");
+        }
+    }
+
+    /**
+     * Record the total time of the execution and then log the metrics and write them to {@link #metricsFile}.
+     *
+     * @param buildMetrics The metrics.
+     * @param start        The sample taken at the start of the execution.
+     * @throws IOException If there was a problem writing the metrics file.
+     */
+    private void writeMetrics(final BuildMetrics buildMetrics, final BuildMetrics.Sample start) throws IOException {
+        if (metrics) {
+            buildMetrics.record("total", start);
+            buildMetrics.log(getLog());
+            buildMetrics.write(metricsFile);
+            getLog().info("Wrote metrics to: " + metricsFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Process only the source files that have changed since the previous build. All source files are processed
+     * if there is no previous build state or the processors, class path or compliance level have changed.
+     *
+     * @param complianceLevel The source compliance level.
+     * @param buildMetrics    Collects the metrics of the build phases.
+     * @param diagnostics     Receives the problems reported by the compiler.
+     * @return The build state recording the outputs generated from each source file.
+     * @throws Exception If there was a problem processing the source files.
+     */
+    private BuildState doIncrementalExecute(final int complianceLevel,
+                                      final BuildMetrics buildMetrics,
+                                      final CompilerDiagnostics diagnostics) throws Exception {
+        final BuildState previousState = BuildState.load(stateFile);
+        final BuildState currentState = new BuildState(getFingerprint(complianceLevel));
+        final List<File> sources = getSourceFiles();
+        // in the IDE only the source files in the delta need to be read to detect changes
+        final Set<String> delta = previousState == null ? null : getDelta();
+        for (final File source : sources) {
+            final String path = source.getAbsolutePath();
+            if (delta != null && !delta.contains(path) && previousState.getDigest(path) != null) {
+                currentState.setDigest(path, previousState.getDigest(path));
+            } else {
+                currentState.setDigest(path, Digests.digest(source));
+            }
+        }
+        // the types declared by unselected source files are not indexed so a change to them cannot be traced to
+        // the source files that reference them
+        for (final File source : getUnselectedSourceFiles()) {
+            final String path = source.getAbsolutePath();
+            final String digest = previousState == null ? null : previousState.getSourcePathDigests().get(path);
+            if (delta != null && !delta.contains(path) && digest != null) {
+                currentState.setSourcePathDigest(path, digest);
+            } else {
+                currentState.setSourcePathDigest(path, Digests.digest(source));
+            }
+        }
+
+        final DependencyIndex previousIndex = DependencyIndex.load(dependencyIndexFile);
+        final DependencyIndex currentIndex = new DependencyIndex();
+        final List<File> changedSources = new ArrayList<File>();
+        final List<File> unchangedSources = new ArrayList<File>();
+        if (previousState == null || !previousState.getFingerprint().equals(currentState.getFingerprint())) {
+            getLog().info("Processors, class path or compliance level changed. Processing all source files");
+            changedSources.addAll(sources);
+        } else if (previousIndex == null) {
+            getLog().info("No dependency index. Processing all source files");
+            changedSources.addAll(sources);
+        } else if (!previousState.getSourcePathDigests().equals(currentState.getSourcePathDigests())) {
+            getLog().info("Source files not selected for processing changed. Processing all source files");
+            changedSources.addAll(sources);
+        } else {
+            final Set<String> changed = new HashSet<String>();
+            for (final File source : sources) {
+                final String path = source.getAbsolutePath();
+                if (!currentState.getDigest(path).equals(previousState.getDigest(path))
+                        || !outputsExist(previousState, path)) {
+                    getLog().debug("Source file changed: " + path);
+                    changed.add(path);
+                }
+            }
+            for (final String path : previousState.getSources()) {
+                if (currentState.getDigest(path) == null) {
+                    changed.add(path);
+                }
+            }
+            final Set<String> dependents = previousIndex.getDependents(changed);
+            for (final File source : sources) {
+                final String path = source.getAbsolutePath();
+                if (dependents.contains(path)) {
+                    if (!changed.contains(path)) {
+                        getLog().debug("Source file depends on a changed type: " + path);
+                    }
+                    changedSources.add(source);
+                } else {
+                    unchangedSources.add(source);
+                }
+            }
+        }
+
+        if (changedSources.isEmpty()) {
+            getLog().info("All " + sources.size() + " source files are up to date");
+        } else {
+            getLog().info("Processing " + changedSources.size() + " of " + sources.size() + " source files");
+            buildBatches(complianceLevel, changedSources, buildMetrics, diagnostics, currentState, currentIndex);
+        }
+        // the previous index only knows the types that already existed so the references to a type declared for the
+        // first time can only be found once the changed source files have been processed
+        if (!unchangedSources.isEmpty()) {
+            final Set<String> referencing =
+                    previousIndex.getDependents(previousIndex.getSourcesReferencingNewTypes(currentIndex));
+            final List<File> referencingSources = new ArrayList<File>();
+            for (final File source : unchangedSources) {
+                final String path = source.getAbsolutePath();
+                if (referencing.contains(path)) {
+                    getLog().debug("Source file may reference a new type: " + path);
+                    referencingSources.add(source);
+                } else {
+                    for (final String output : previousState.getOutputs(path)) {
+                        currentState.addOutput(path, output);
+                    }
+                    currentIndex.copy(previousIndex, path);
+                }
+            }
+            if (!referencingSources.isEmpty()) {
+                getLog().info("Processing " + referencingSources.size()
+                        + " source files that may reference new types");
+                buildBatches(complianceLevel, referencingSources, buildMetrics, diagnostics, currentState,
+                        currentIndex);
+            }
+        }
+        copyExcludedFiles(currentState);
+        if (previousState != null) {
+            deleteStaleOutputs(previousState, currentState);
+        }
+        currentIndex.save(dependencyIndexFile);
+        currentState.save(stateFile);
+        return currentState;
+    }
+
+    /**
+     * Build, process and write the source files in batches of {@link #batchSize} files or all at once if batching is
+     * disabled. The model of each batch is released before the next batch is built.
+     *
+     * @param complianceLevel The source compliance level.
+     * @param sources         The source files.
+     * @param buildMetrics    Collects the metrics of the build phases.
+     * @param diagnostics     Receives the problems reported by the compiler.
+     * @param state           Receives the output files generated from each source file or {@code null}.
+     * @param dependencies    Receives the types declared and referenced by each source file or {@code null}.
+     * @throws Exception If there was a problem processing the source files.
+     */
+    private void buildBatches(final int complianceLevel,
+                              final List<File> sources,
+                              final BuildMetrics buildMetrics,
+                              final CompilerDiagnostics diagnostics,
+                              final BuildState state,
+                              final DependencyIndex dependencies) throws Exception {
+        final BuildRequest request = createRequest(complianceLevel, dependencies != null);
+        final List<List<File>> batches = getBatches(sources);
+        for (int i = 0; i < batches.size(); i++) {
+            final List<File> batch = batches.get(i);
+            if (batches.size() > 1) {
+                getLog().info("Processing batch " + (i + 1) + " of " + batches.size() + " (" + batch.size()
+                        + " source files)");
+            }
+            request.setSources(batch);
+            final BuildResult result = execute(request, buildMetrics, diagnostics);
+            buildTime += result.getBuildTime();
+            analysisTime += result.getAnalysisTime();
+            javadocParsed |= result.isJavadoc();
+            for (final File file : result.getWrittenFiles()) {
+                buildContext.refresh(file);
+            }
+            if (state != null) {
+                for (final Map.Entry<String, List<String>> entry : result.getOutputs().entrySet()) {
+                    for (final String output : entry.getValue()) {
+                        state.addOutput(entry.getKey(), output);
+                    }
+                }
+            }
+            if (dependencies != null) {
+                dependencies.addAll(result.getDependencies());
+            }
+        }
+    }
+
+    /**
+     * Create the request used to build, process and write each batch of source files.
+     *
+     * @param complianceLevel    The source compliance level.
+     * @param recordDependencies {@code true} if the types declared and referenced by each source file are recorded.
+     * @return The build request.
+     * @throws DependencyResolutionRequiredException If the project dependencies have not been resolved.
+     */
+    private BuildRequest createRequest(final int complianceLevel, final boolean recordDependencies)
+            throws DependencyResolutionRequiredException {
+        final BuildRequest request = new BuildRequest();
+        request.setComplianceLevel(complianceLevel);
+        request.setInputSources(Arrays.asList(inputSources));
+        request.setClasspath(getClasspathElements());
+        request.setProcessors(resolveProcessors(processors));
+        for (final Pipeline pipeline : pipelines) {
+            final Pipeline resolved = new Pipeline();
+            resolved.setName(pipeline.getName());
+            final List<String> pipelineProcessors = resolveProcessors(pipeline.getProcessors());
+            resolved.setProcessors(pipelineProcessors.toArray(new String[pipelineProcessors.size()]));
+            resolved.setOutputDirectory(pipeline.getOutputDirectory().getAbsoluteFile());
+            request.getPipelines().add(resolved);
+        }
+        request.setOutputDirectory(outputDirectory);
+        request.setEncoding(encoding);
+        request.setCompilerThreads(compilerThreads);
+        request.setProcessingThreads(processingThreads);
+        request.setOutputThreads(outputThreads);
+        request.setCompileStatic(compileStatic);
+        request.setScriptCacheDirectory(scriptCacheDirectory);
+        request.setRetainCompilerProblems(retainCompilerProblems);
+        request.setMaxErrors(maxErrors);
+        request.setFlowAnalysis(flowAnalysis);
+        request.setJavadoc(javadoc);
+        request.setRecordDependencies(recordDependencies);
+        request.setWorkerThreads(workerThreads);
+        request.setMemoryLimit(memoryLimit);
+        request.setStreaming(streaming);
+        request.setPluginVersion(pluginVersion);
+        request.setMetrics(metrics);
+        return request;
+    }
+
+    /**
+     * Resolve the paths of Groovy processor scripts against the working directory of the Maven build so that they
+     * can be found by the Spoon daemon.
+     *
+     * @param processors The class names of the processors or the paths of Groovy processor scripts.
+     * @return The class names of the processors or the absolute paths of Groovy processor scripts.
+     */
+    private List<String> resolveProcessors(final String[] processors) {
+        final List<String> resolved = new ArrayList<String>();
+        for (final String processor : processors) {
+            if (processor.endsWith(".groovy")) {
+                resolved.add(new File(processor).getAbsolutePath());
+            } else {
+                resolved.add(processor);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Execute a build request in the Spoon daemon if it is enabled and available or otherwise in the Maven build.
+     *
+     * @param request      The build request.
+     * @param buildMetrics Collects the metrics of the build phases.
+     * @param diagnostics  Receives the problems reported by the compiler.
+     * @return The build result.
+     * @throws Exception If there was a problem processing the source files.
+     */
+    private BuildResult execute(final BuildRequest request,
+                                final BuildMetrics buildMetrics,
+                                final CompilerDiagnostics diagnostics) throws Exception {
+        if (daemon) {
+            final BuildMetrics.Sample sample = buildMetrics.sample();
+            final BuildResult result = DaemonClient.execute(daemonFile, request, getDaemonClasspath(), getLog());
+            if (result != null) {
+                buildMetrics.record("daemon", sample, request.getSources().size());
+                if (result.getMetrics() != null) {
+                    buildMetrics.addAll(result.getMetrics());
+                }
+                diagnostics.addAll(result.getDiagnostics());
+                if (result.getFailure() != null) {
+                    throw result.getFailure();
+                }
+                getLog().info("Wrote " + result.getWrittenFiles().size() + " processed source files, "
+                        + result.getSkippedCount() + " unchanged");
+                return result;
+            }
+            getLog().warn("The Spoon daemon is not available, processing in the Maven build");
+        }
+        return new SpoonRunner(getLog()).run(request, buildMetrics, diagnostics);
+    }
+
+    /**
+     * Get the class path used to start the Spoon daemon.
+     *
+     * @return The plugin and its dependencies.
+     */
+    private List<File> getDaemonClasspath() {
+        final List<File> classpath = new ArrayList<File>();
+        for (final Artifact artifact : pluginArtifacts) {
+            if (artifact.getFile() != null) {
+                classpath.add(artifact.getFile());
+            }
+        }
+        return classpath;
+    }
+
+    /**
+     * Split the source files into batches of approximately {@link #batchSize} files. The source files in the same
+     * folder are always in the same batch so a package is never split across batches.
+     *
+     * @param sources The source files.
+     * @return The batches.
+     */
+    private List<List<File>> getBatches(final List<File> sources) {
+        if (batchSize <= 0) {
+            return Collections.singletonList(sources);
+        }
+        final Map<File, List<File>> packages = new LinkedHashMap<File, List<File>>();
+        for (final File source : sources) {
+            List<File> files = packages.get(source.getParentFile());
+            if (files == null) {
+                files = new ArrayList<File>();
+                packages.put(source.getParentFile(), files);
+            }
+            files.add(source);
+        }
+        final List<List<File>> batches = new ArrayList<List<File>>();
+        List<File> batch = new ArrayList<File>();
+        for (final List<File> files : packages.values()) {
+            if (!batch.isEmpty() && batch.size() + files.size() > batchSize) {
+                batches.add(batch);
+                batch = new ArrayList<File>();
+            }
+            batch.addAll(files);
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Get the compile class path elements of the project.
+     *
+     * @return The class path elements.
+     * @throws DependencyResolutionRequiredException If the project dependencies have not been resolved.
+     */
+    private List<String> getClasspathElements() throws DependencyResolutionRequiredException {
+        final List<String> elements = new ArrayList<String>();
+        for (final Object element : project.getCompileClasspathElements()) {
+            elements.add(element.toString());
+        }
+        return elements;
+    }
+
+    /**
+     * Get the Java source files contained in the input source folders that are selected by the {@link #includes}
+     * and {@link #excludes} patterns.
+     *
+     * @return The source files.
+     */
+    private List<File> getSourceFiles() {
+        final List<File> sources = new ArrayList<File>();
         for (final File inputSource : inputSources) {
             getLog().info("Adding input source: " + inputSource.getPath());
-            builder.addInputSource(inputSource);
+            if (inputSource.isDirectory()) {
+                for (final String file : scanSourceFiles(inputSource)) {
+                    sources.add(new File(inputSource, file));
+                }
+            } else if (inputSource.isFile()) {
+                sources.add(inputSource);
+            }
         }
-        builder.build();
+        return sources;
+    }
 
-        final ProcessingManager processing = new QueueProcessingManager(factory);
+    /**
+     * Get the Java source files contained in the input source folders that are not selected by the
+     * {@link #includes} and {@link #excludes} patterns. The processed source files can still reference the types
+     * they declare.
+     *
+     * @return The source files.
+     */
+    private List<File> getUnselectedSourceFiles() {
+        final List<File> sources = new ArrayList<File>();
+        for (final File inputSource : inputSources) {
+            if (inputSource.isDirectory()) {
+                final Set<String> selected = new HashSet<String>(scanSourceFiles(inputSource));
+                for (final String path : scan(inputSource, new String[]{JAVA_FILES}, null)) {
+                    if (!selected.contains(path)) {
+                        sources.add(new File(inputSource, path));
+                    }
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Find the Java source files in an input source folder that are selected by the {@link #includes} and
+     * {@link #excludes} patterns.
+     *
+     * @param directory The input source folder.
+     * @return The sorted paths of the selected source files relative to the folder.
+     */
+    private List<String> scanSourceFiles(final File directory) {
+        final String[] patterns = includes == null || includes.length == 0 ? new String[]{JAVA_FILES} : includes;
+        final List<String> files = new ArrayList<String>();
+        for (final String file : scan(directory, patterns, excludes)) {
+            if (file.endsWith(".java")) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Copy the Java source files that are excluded from processing to the output directory if {@link #copyExcluded}
+     * is enabled. A file is only copied if the copy in the output directory has a different size or modification
+     * time.
+     *
+     * @param state The build state that records the copied files as the outputs of the source files or
+     *              {@code null}.
+     * @throws IOException If there was a problem copying a file.
+     */
+    private void copyExcludedFiles(final BuildState state) throws IOException {
+        if (!copyExcluded) {
+            return;
+        }
+        int copied = 0;
+        for (final File inputSource : inputSources) {
+            if (inputSource.isDirectory()) {
+                final Set<String> selected = new HashSet<String>(scanSourceFiles(inputSource));
+                for (final String path : scan(inputSource, new String[]{JAVA_FILES}, null)) {
+                    if (selected.contains(path)) {
+                        continue;
+                    }
+                    final File source = new File(inputSource, path);
+                    final File target = new File(outputDirectory, path);
+                    if (target.length() != source.length() || target.lastModified() != source.lastModified()) {
+                        FileUtils.copyFile(source, target);
+                        target.setLastModified(source.lastModified());
+                        buildContext.refresh(target);
+                        copied++;
+                    }
+                    if (state != null) {
+                        state.setDigest(source.getAbsolutePath(), Digests.digest(source));
+                        state.addOutput(source.getAbsolutePath(), path.replace(File.separatorChar, '/'));
+                    }
+                }
+            }
+        }
+        getLog().info("Copied " + copied + " excluded source files");
+    }
+
+    /**
+     * Calculate the fingerprint of the plugin version, the source compliance level, the encoding, the processors and
+     * the compile class path. A change to any of these invalidates the output generated from every source file. The
+     * class path folders are identified by the files they contain and the output folder of the module is excluded.
+     *
+     * @param complianceLevel The source compliance level.
+     * @return The fingerprint.
+     * @throws Exception If there was a problem resolving the class path or reading a Groovy script.
+     */
+    private String getFingerprint(final int complianceLevel) throws Exception {
+        final StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append("plugin=").append(pluginVersion).append('\n');
+        fingerprint.append("source=1.").append(complianceLevel).append('\n');
+        fingerprint.append("encoding=").append(encoding).append('\n');
+        fingerprint.append("compileStatic=").append(compileStatic).append('\n');
+        fingerprint.append("javadoc=").append(javadoc).append('\n');
+        appendPatterns(fingerprint);
+        appendProcessors(fingerprint);
+        // the classes of the module itself do not exist before the first build so they would force a second build
+        final File classesDirectory = new File(project.getBuild().getOutputDirectory()).getAbsoluteFile();
+        for (final Object element : project.getCompileClasspathElements()) {
+            final File file = new File(element.toString()).getAbsoluteFile();
+            if (!file.equals(classesDirectory)) {
+                fingerprint.append("classpath=").append(ProcessorClassLoaders.stamp(file)).append('\n');
+            }
+        }
+        return Digests.digest(fingerprint.toString());
+    }
+
+    /**
+     * Calculate the build cache key from the plugin version, the source compliance level, the encoding, the
+     * processors, the batch size and the contents of the input sources and compile class path. The output directory
+     * of the module itself is not part of the key. Only relative paths and file contents contribute to the key so
+     * that it is the same for every checkout of the same commit.
+     *
+     * @param complianceLevel The source compliance level.
+     * @return The cache key.
+     * @throws Exception If there was a problem resolving the class path or reading a file.
+     */
+    private String getCacheKey(final int complianceLevel) throws Exception {
+        final StringBuilder key = new StringBuilder();
+        key.append("plugin=").append(pluginVersion).append('\n');
+        key.append("source=1.").append(complianceLevel).append('\n');
+        key.append("encoding=").append(encoding).append('\n');
+        key.append("compileStatic=").append(compileStatic).append('\n');
+        key.append("javadoc=").append(javadoc).append('\n');
+        // each batch is built as a separate model so processors that are not type-local can see different types
+        key.append("batchSize=").append(batchSize).append('\n');
+        appendPatterns(key);
+        appendProcessors(key);
+        for (final File inputSource : inputSources) {
+            key.append("input\n");
+            appendContents(key, inputSource, JAVA_FILES);
+        }
+        // the classes of the module itself depend on whether the build is clean so they would never match
+        final File classesDirectory = new File(project.getBuild().getOutputDirectory()).getAbsoluteFile();
+        for (final Object element : project.getCompileClasspathElements()) {
+            final File file = new File(element.toString()).getAbsoluteFile();
+            if (!file.equals(classesDirectory)) {
+                key.append("classpath\n");
+                appendContents(key, file, "**/*");
+            }
+        }
+        return Digests.digest(key.toString());
+    }
+
+    /**
+     * Append the include and exclude patterns to a fingerprint or cache key.
+     *
+     * @param buffer The fingerprint or cache key being built.
+     */
+    private void appendPatterns(final StringBuilder buffer) {
+        if (includes != null) {
+            for (final String include : includes) {
+                buffer.append("include=").append(include).append('\n');
+            }
+        }
+        if (excludes != null) {
+            for (final String exclude : excludes) {
+                buffer.append("exclude=").append(exclude).append('\n');
+            }
+        }
+        buffer.append("copyExcluded=").append(copyExcluded).append('\n');
+    }
+
+    /**
+     * Append the identity of each processor and pipeline to a fingerprint or cache key.
+     *
+     * @param buffer The fingerprint or cache key being built.
+     * @throws IOException If there was a problem reading a Groovy script.
+     */
+    private void appendProcessors(final StringBuilder buffer) throws IOException {
+        appendProcessors(buffer, processors);
+        for (final Pipeline pipeline : pipelines) {
+            buffer.append("pipeline=").append(pipeline.getName()).append(':')
+                    .append(pipeline.getOutputDirectory().getAbsolutePath()).append('\n');
+            appendProcessors(buffer, pipeline.getProcessors());
+        }
+    }
+
+    /**
+     * Append the identity of each processor to a fingerprint or cache key. The identity is the class name or for a
+     * Groovy script the path and the digest of its contents.
+     *
+     * @param buffer     The fingerprint or cache key being built.
+     * @param processors The class names of the processors or the paths of Groovy processor scripts.
+     * @throws IOException If there was a problem reading a Groovy script.
+     */
+    private void appendProcessors(final StringBuilder buffer, final String[] processors) throws IOException {
         for (final String processor : processors) {
-            getLog().info("Adding processor: " + processor);
+            buffer.append("processor=").append(processor);
             if (processor.endsWith(".groovy")) {
                 final File script = new File(processor);
                 if (script.exists()) {
-                    processing.addProcessor(new GroovyProcessor<CtElement>(script));
+                    buffer.append(':').append(Digests.digest(script));
+                }
+            }
+            buffer.append('\n');
+        }
+    }
+
+    /**
+     * Append the relative paths and digests of the files in a folder, or the digest of a single file, to a cache
+     * key.
+     *
+     * @param buffer  The cache key being built.
+     * @param file    The file or folder.
+     * @param include The pattern used to select files in a folder.
+     * @throws IOException If there was a problem reading a file.
+     */
+    private void appendContents(final StringBuilder buffer, final File file, final String include)
+            throws IOException {
+        if (file.isDirectory()) {
+            for (final String path : scan(file, new String[]{include}, null)) {
+                buffer.append(path.replace(File.separatorChar, '/')).append('=')
+                        .append(Digests.digest(new File(file, path))).append('\n');
+            }
+        } else if (file.isFile()) {
+            buffer.append(Digests.digest(file)).append('\n');
+        }
+    }
+
+    /**
+     * Find the files in a folder that match the include patterns and do not match the exclude patterns.
+     *
+     * @param directory The folder.
+     * @param includes  The include patterns.
+     * @param excludes  The exclude patterns or {@code null}.
+     * @return The sorted paths of the matching files relative to the folder.
+     */
+    private String[] scan(final File directory, final String[] includes, final String[] excludes) {
+        final DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(directory);
+        scanner.setIncludes(includes);
+        scanner.setExcludes(excludes);
+        scanner.scan();
+        final String[] files = scanner.getIncludedFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Get an output file recorded in the build state. The outputs of named pipelines are recorded as absolute paths
+     * and all other outputs relative to {@link #outputDirectory}.
+     *
+     * @param output The recorded output path.
+     * @return The output file.
+     */
+    private File getOutputFile(final String output) {
+        final File file = new File(output);
+        return file.isAbsolute() ? file : new File(outputDirectory, output);
+    }
+
+    /**
+     * Check that the output files previously generated from a source file still exist.
+     *
+     * @param state  The build state.
+     * @param source The source file path.
+     * @return {@code true} if the output files exist.
+     */
+    private boolean outputsExist(final BuildState state, final String source) {
+        for (final String output : state.getOutputs(source)) {
+            if (!getOutputFile(output).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delete the output files recorded in the previous build state that were not generated again. Output files that
+     * were generated again are left in place so the output stage can skip them if their contents did not change.
+     *
+     * @param previousState The previous build state.
+     * @param currentState  The current build state.
+     * @throws IOException If an output file could not be deleted.
+     */
+    private void deleteStaleOutputs(final BuildState previousState, final BuildState currentState)
+            throws IOException {
+        final Set<String> outputs = new HashSet<String>();
+        for (final String source : currentState.getSources()) {
+            outputs.addAll(currentState.getOutputs(source));
+        }
+        for (final String source : previousState.getSources()) {
+            for (final String output : previousState.getOutputs(source)) {
+                final File file = getOutputFile(output);
+                if (!outputs.contains(output) && file.exists()) {
+                    if (!file.delete()) {
+                        throw new IOException("Unable to delete: " + file.getAbsolutePath());
+                    }
+                    buildContext.refresh(file);
                 }
-            } else {
-                processing.addProcessor(processor);
             }
         }
-        processing.addProcessor(new JavaOutputProcessor(outputDirectory));
-        processing.process();
     }
-}
\ No newline at end of file
+}
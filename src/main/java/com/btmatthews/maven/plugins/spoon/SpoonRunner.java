@@ -0,0 +1,383 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import com.btmatthews.maven.plugins.spoon.processing.CompilerRequirements;
+import com.btmatthews.maven.plugins.spoon.processing.JavaOutputWriter;
+import com.btmatthews.maven.plugins.spoon.processing.ParallelProcessingManager;
+import com.btmatthews.maven.plugins.spoon.processing.ReadOnly;
+import com.btmatthews.maven.plugins.spoon.processing.SignaturesOnly;
+import com.btmatthews.maven.plugins.spoon.processors.GroovyProcessor;
+import com.btmatthews.maven.plugins.spoon.processors.GroovyScriptCache;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import spoon.processing.Builder;
+import spoon.processing.Processor;
+import spoon.reflect.Factory;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtSimpleType;
+import spoon.support.DefaultCoreFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the Spoon model for a set of source files, applies the processors of each pipeline and writes the processed
+ * source files. The same runner is used by the Maven build and by the Spoon daemon.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class SpoonRunner {
+
+    /**
+     * Used to log the progress of the build.
+     */
+    private final Log log;
+
+    /**
+     * Initialise the runner.
+     *
+     * @param log Used to log the progress of the build.
+     */
+    public SpoonRunner(final Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Build the Spoon model for the source files, apply the processors and write the processed source files to the
+     * output directory. The processors are loaded by a class loader for the compile class path of the request. The
+     * build waits until the {@link BuildScheduler} admits the estimated memory needed for the model.
+     *
+     * @param request      The build request.
+     * @param buildMetrics Collects the metrics of the build phases.
+     * @param diagnostics  Receives the problems reported by the compiler.
+     * @return The build result.
+     * @throws Exception If there was a problem processing the source files.
+     */
+    public BuildResult run(final BuildRequest request,
+                           final BuildMetrics buildMetrics,
+                           final CompilerDiagnostics diagnostics) throws Exception {
+        final BuildMetrics.Sample sample = buildMetrics.sample();
+        final int admitted = BuildScheduler.admit(request.getWorkerThreads(), request.getMemoryLimit(),
+                BuildScheduler.estimate(request.getSources()), log);
+        buildMetrics.record("admission", sample);
+        try {
+            final ProcessorClassLoader classLoader = ProcessorClassLoaders.acquire(request.getClasspath());
+            final Thread thread = Thread.currentThread();
+            final ClassLoader contextClassLoader = thread.getContextClassLoader();
+            thread.setContextClassLoader(classLoader);
+            try {
+                return run(request, classLoader, buildMetrics, diagnostics);
+            } finally {
+                thread.setContextClassLoader(contextClassLoader);
+                ProcessorClassLoaders.release(classLoader);
+            }
+        } finally {
+            BuildScheduler.release(admitted);
+        }
+    }
+
+    /**
+     * Build the Spoon model for the source files once and then apply each pipeline of processors and write the
+     * processed source files to the output directory of the pipeline. A pipeline is applied to the model left by the
+     * previous pipeline if every pipeline applied to that model was read-only. Otherwise the model is built again
+     * from the compilation units retained from the first build so the source files are only parsed and resolved
+     * once.
+     *
+     * @param request      The build request.
+     * @param classLoader  The class loader used to load the processors.
+     * @param buildMetrics Collects the metrics of the build phases.
+     * @param diagnostics  Receives the problems reported by the compiler.
+     * @return The build result.
+     * @throws Exception If there was a problem processing the source files.
+     */
+    private BuildResult run(final BuildRequest request,
+                            final ClassLoader classLoader,
+                            final BuildMetrics buildMetrics,
+                            final CompilerDiagnostics diagnostics) throws Exception {
+        final List<File> sources = request.getSources();
+        final List<Pipeline> pipelines = getPipelines(request);
+        final GroovyScriptCache scriptCache =
+                new GroovyScriptCache(request.getScriptCacheDirectory(), request.getPluginVersion(), classLoader);
+        final List<List<Processor<?>>> pipelineProcessors = new ArrayList<List<Processor<?>>>();
+        boolean signaturesOnly = true;
+        boolean needsFlowAnalysis = false;
+        boolean needsJavadoc = false;
+        for (final Pipeline pipeline : pipelines) {
+            final List<Processor<?>> processors =
+                    createProcessors(pipeline, request.isCompileStatic(), scriptCache, classLoader);
+            pipelineProcessors.add(processors);
+            signaturesOnly &= isAnnotated(processors, SignaturesOnly.class);
+            needsFlowAnalysis |= processors.isEmpty();
+            needsJavadoc |= processors.isEmpty();
+            for (final Processor<?> processor : processors) {
+                final CompilerRequirements requirements =
+                        processor.getClass().getAnnotation(CompilerRequirements.class);
+                needsFlowAnalysis |= requirements == null || requirements.flowAnalysis();
+                needsJavadoc |= requirements == null || requirements.javadoc();
+            }
+        }
+        if (signaturesOnly) {
+            log.info("All processors are signatures only, method bodies will not be built");
+        }
+        final MavenEnvironment env = createEnvironment(request, buildMetrics, diagnostics);
+        env.setMethodBodies(!signaturesOnly);
+        // doc comments are printed in the output so they are only skipped by default if the output is a copy
+        final Boolean flowAnalysis = request.getFlowAnalysis();
+        final Boolean javadoc = request.getJavadoc();
+        env.setFlowAnalysis(flowAnalysis == null ? needsFlowAnalysis : flowAnalysis);
+        env.setJavadoc(javadoc == null ? needsJavadoc || !signaturesOnly : javadoc);
+        env.setRetainCompiledModel(pipelines.size() > 1);
+        log.debug("Flow analysis: " + env.isFlowAnalysis() + ", doc comments: " + env.isJavadoc());
+
+        Factory factory = new Factory(new DefaultCoreFactory(), env);
+        final Builder builder = factory.getBuilder();
+        for (final File source : sources) {
+            builder.addInputSource(source);
+        }
+        BuildMetrics.Sample sample = buildMetrics.sample();
+        final long buildStart = System.nanoTime();
+        builder.build();
+        final long buildTime = System.nanoTime() - buildStart;
+        sample = buildMetrics.record("build", sample, sources.size());
+        final BuildResult result = new BuildResult();
+        result.setBuildCost(buildTime, env.getAnalysisTime(), env.isJavadoc());
+        if (request.isRecordDependencies()) {
+            final DependencyIndex dependencies = new DependencyIndex();
+            dependencies.record(factory);
+            result.setDependencies(dependencies);
+            buildMetrics.record("dependencies", sample);
+        }
+
+        try {
+            boolean modified = false;
+            for (int i = 0; i < pipelines.size(); i++) {
+                final Pipeline pipeline = pipelines.get(i);
+                final List<Processor<?>> processors = pipelineProcessors.get(i);
+                if (modified) {
+                    sample = buildMetrics.sample();
+                    final MavenEnvironment pipelineEnv = createEnvironment(request, buildMetrics, diagnostics);
+                    pipelineEnv.setMethodBodies(env.isMethodBodies());
+                    pipelineEnv.setFlowAnalysis(env.isFlowAnalysis());
+                    pipelineEnv.setJavadoc(env.isJavadoc());
+                    factory = new Factory(new DefaultCoreFactory(), pipelineEnv);
+                    if (env.getCompiledModel() != null) {
+                        env.getCompiledModel().buildModel(factory);
+                    }
+                    buildMetrics.record("build " + pipeline.getName(), sample, sources.size());
+                }
+                if (pipeline.getName() != null) {
+                    log.info("Applying pipeline: " + pipeline.getName());
+                }
+                final boolean copySources = isAnnotated(processors, SignaturesOnly.class);
+                apply(request, pipeline, processors, factory, copySources, buildMetrics, result);
+                modified = !copySources && !isAnnotated(processors, ReadOnly.class);
+            }
+        } finally {
+            if (env.getCompiledModel() != null) {
+                env.getCompiledModel().release();
+                env.setCompiledModel(null);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Apply a pipeline of processors to the model and write the processed source files to the output directory of
+     * the pipeline. If streaming is enabled and every processor is read-only or type-local each top-level type is
+     * written as soon as the processors have finished with it.
+     *
+     * @param request      The build request.
+     * @param pipeline     The pipeline.
+     * @param processors   The processors of the pipeline.
+     * @param factory      The factory holding the model.
+     * @param copySources  {@code true} if the source files are copied unchanged instead of being pretty-printed.
+     * @param buildMetrics Collects the metrics of the build phases.
+     * @param result       Receives the files written and the outputs generated from each source file.
+     * @throws Exception If there was a problem processing the model or writing the output.
+     */
+    private void apply(final BuildRequest request,
+                       final Pipeline pipeline,
+                       final List<Processor<?>> processors,
+                       final Factory factory,
+                       final boolean copySources,
+                       final BuildMetrics buildMetrics,
+                       final BuildResult result) throws Exception {
+        final ParallelProcessingManager processing =
+                new ParallelProcessingManager(factory, request.getProcessingThreads(), buildMetrics);
+        for (final Processor<?> processor : processors) {
+            processing.addProcessor(processor);
+        }
+        final JavaOutputWriter writer = new JavaOutputWriter(factory.getEnvironment(),
+                pipeline.getOutputDirectory(), request.getEncoding(), request.getOutputThreads());
+        writer.setCopySources(copySources);
+        final boolean streaming = request.isStreaming() && processing.isStreamable();
+        if (streaming) {
+            processing.stream(writer);
+        } else {
+            if (request.isStreaming()) {
+                log.info("Not all processors are read-only or type-local, streaming is disabled");
+            }
+            processing.process();
+            final BuildMetrics.Sample sample = buildMetrics.sample();
+            final List<CtSimpleType<?>> types = Types.getTopLevelTypes(factory);
+            writer.writeAll(types);
+            buildMetrics.record(pipeline.getName() == null ? "output" : "output " + pipeline.getName(), sample,
+                    types.size());
+        }
+        log.info("Wrote " + writer.getWrittenCount() + " processed source files, "
+                + writer.getSkippedCount() + " unchanged");
+        result.addWrittenFiles(writer.getWrittenFiles());
+        result.addSkippedCount(writer.getSkippedCount());
+        for (final Map.Entry<String, List<String>> entry : writer.getOutputs().entrySet()) {
+            for (final String output : entry.getValue()) {
+                // the outputs of named pipelines are not in the output directory of the execution
+                if (pipeline.getName() == null) {
+                    result.addOutput(entry.getKey(), output);
+                } else {
+                    result.addOutput(entry.getKey(), new File(pipeline.getOutputDirectory(), output).getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the pipelines of a build request. The processors of the request form an unnamed pipeline that writes to
+     * the output directory of the request. It is applied first unless it has no processors and there are named
+     * pipelines.
+     *
+     * @param request The build request.
+     * @return The pipelines.
+     */
+    private static List<Pipeline> getPipelines(final BuildRequest request) {
+        final List<Pipeline> pipelines = new ArrayList<Pipeline>();
+        if (!request.getProcessors().isEmpty() || request.getPipelines().isEmpty()) {
+            final Pipeline pipeline = new Pipeline();
+            pipeline.setProcessors(request.getProcessors().toArray(new String[request.getProcessors().size()]));
+            pipeline.setOutputDirectory(request.getOutputDirectory());
+            pipelines.add(pipeline);
+        }
+        pipelines.addAll(request.getPipelines());
+        return pipelines;
+    }
+
+    /**
+     * Create the environment of a factory from the settings of the build request.
+     *
+     * @param request      The build request.
+     * @param buildMetrics Collects the metrics of the build phases.
+     * @param diagnostics  Receives the problems reported by the compiler.
+     * @return The environment.
+     */
+    private static MavenEnvironment createEnvironment(final BuildRequest request,
+                                                      final BuildMetrics buildMetrics,
+                                                      final CompilerDiagnostics diagnostics) {
+        final MavenEnvironment env = new MavenEnvironment();
+        env.setVerbose(false);
+        env.setDebug(false);
+        env.setComplianceLevel(request.getComplianceLevel());
+        env.setCompilerThreads(request.getCompilerThreads());
+        env.setClasspath(request.getClasspath());
+        env.setMetrics(buildMetrics);
+        env.setRetainProblems(request.isRetainCompilerProblems());
+        env.setDiagnostics(diagnostics);
+        env.setMaxErrors(request.getMaxErrors());
+        for (final File inputSource : request.getInputSources()) {
+            env.addSourcePathFolder(inputSource);
+        }
+        return env;
+    }
+
+    /**
+     * Instantiate the processors of a pipeline. Groovy scripts that do not exist are ignored.
+     *
+     * @param pipeline      The pipeline.
+     * @param compileStatic If {@code true} Groovy scripts are compiled with {@code @CompileStatic}.
+     * @param scriptCache   The cache of compiled Groovy scripts.
+     * @param classLoader   The class loader used to load the processors.
+     * @return The processors.
+     * @throws MojoExecutionException If a processor class could not be loaded or instantiated.
+     * @throws IOException            If there was a problem reading or compiling a Groovy script.
+     */
+    private List<Processor<?>> createProcessors(final Pipeline pipeline,
+                                                final boolean compileStatic,
+                                                final GroovyScriptCache scriptCache,
+                                                final ClassLoader classLoader)
+            throws MojoExecutionException, IOException {
+        final List<Processor<?>> processors = new ArrayList<Processor<?>>();
+        for (final String processor : pipeline.getProcessors()) {
+            log.info("Adding processor: " + processor);
+            if (processor.endsWith(".groovy")) {
+                final File script = new File(processor);
+                if (script.exists()) {
+                    processors.add(new GroovyProcessor<CtElement>(script, compileStatic, scriptCache));
+                }
+            } else {
+                processors.add(createProcessor(processor, classLoader));
+            }
+        }
+        return processors;
+    }
+
+    /**
+     * Check whether every processor in a non-empty list is annotated with an annotation.
+     *
+     * @param processors The processors.
+     * @param annotation The annotation type.
+     * @return {@code true} if there is at least one processor and every processor is annotated.
+     */
+    private static boolean isAnnotated(final List<Processor<?>> processors,
+                                       final Class<? extends Annotation> annotation) {
+        if (processors.isEmpty()) {
+            return false;
+        }
+        for (final Processor<?> processor : processors) {
+            if (!processor.getClass().isAnnotationPresent(annotation)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Instantiate a processor class using the processor class loader.
+     *
+     * @param className   The fully qualified class name of the processor.
+     * @param classLoader The processor class loader.
+     * @return The processor.
+     * @throws MojoExecutionException If the processor class could not be loaded or instantiated.
+     */
+    private Processor<?> createProcessor(final String className, final ClassLoader classLoader)
+            throws MojoExecutionException {
+        try {
+            return (Processor<?>) classLoader.loadClass(className).newInstance();
+        } catch (final ClassNotFoundException e) {
+            throw new MojoExecutionException("Processor class not found: " + className, e);
+        } catch (final InstantiationException e) {
+            throw new MojoExecutionException("Unable to instantiate processor: " + className, e);
+        } catch (final IllegalAccessException e) {
+            throw new MojoExecutionException("Unable to instantiate processor: " + className, e);
+        } catch (final ClassCastException e) {
+            throw new MojoExecutionException("Class is not a processor: " + className, e);
+        }
+    }
+}
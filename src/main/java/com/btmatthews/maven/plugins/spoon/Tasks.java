@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Helper methods for running tasks on a worker pool.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public final class Tasks {
+
+    /**
+     * Prevent instantiation.
+     */
+    private Tasks() {
+    }
+
+    /**
+     * Run the tasks on the worker pool and wait for all of them to complete. The worker pool is shared by every
+     * execution in the build session so each task runs with the context class loader of the calling thread.
+     *
+     * @param executor The worker pool.
+     * @param tasks    The tasks.
+     * @param <T>      The type of the task results.
+     * @return The task results in the same order as the tasks.
+     * @throws RuntimeException If a task failed with an unchecked exception it is rethrown. A checked exception
+     *                          is wrapped in an {@link IllegalStateException}.
+     */
+    public static <T> List<T> invokeAll(final ExecutorService executor, final List<? extends Callable<T>> tasks) {
+        final List<T> results = new ArrayList<T>(tasks.size());
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        final List<Callable<T>> wrapped = new ArrayList<Callable<T>>(tasks.size());
+        for (final Callable<T> task : tasks) {
+            wrapped.add(new Callable<T>() {
+                public T call() throws Exception {
+                    final Thread thread = Thread.currentThread();
+                    final ClassLoader previous = thread.getContextClassLoader();
+                    thread.setContextClassLoader(contextClassLoader);
+                    try {
+                        return task.call();
+                    } finally {
+                        thread.setContextClassLoader(previous);
+                    }
+                }
+            });
+        }
+        try {
+            for (final Future<T> future : executor.invokeAll(wrapped)) {
+                results.add(future.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+}
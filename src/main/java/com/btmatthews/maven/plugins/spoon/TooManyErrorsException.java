@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+/**
+ * Thrown by the compiler to abort the build as soon as the number of compilation errors reaches the configured
+ * limit.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class TooManyErrorsException extends RuntimeException {
+
+    /**
+     * Initialise the exception.
+     *
+     * @param maxErrors The maximum number of compilation errors.
+     */
+    public TooManyErrorsException(final int maxErrors) {
+        super("Build aborted after " + maxErrors + " compilation error(s)");
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import spoon.reflect.Factory;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.declaration.CtSimpleType;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helper methods for working with the top-level types in a Spoon model.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public final class Types {
+
+    /**
+     * The file extension used for Java source files.
+     */
+    private static final String JAVA_EXTENSION = ".java";
+
+    /**
+     * Prevent instantiation.
+     */
+    private Types() {
+    }
+
+    /**
+     * Get all the top-level types in the model.
+     *
+     * @param factory The factory that owns the model.
+     * @return The top-level types.
+     */
+    public static List<CtSimpleType<?>> getTopLevelTypes(final Factory factory) {
+        final List<CtSimpleType<?>> types = new ArrayList<CtSimpleType<?>>();
+        for (final CtPackage pkg : factory.Package().getAll()) {
+            types.addAll(pkg.getTypes());
+        }
+        return types;
+    }
+
+    /**
+     * Get the source file from which a top-level type was built.
+     *
+     * @param type The top-level type.
+     * @return The source file or {@code null} if the type was not built from a source file.
+     */
+    public static File getSourceFile(final CtSimpleType<?> type) {
+        if (type.getPosition() == null) {
+            return null;
+        }
+        return type.getPosition().getFile();
+    }
+
+    /**
+     * Get the path of the file that a top-level type is written to relative to the output directory.
+     *
+     * @param type The top-level type.
+     * @return The relative path using {@code /} as the separator.
+     */
+    public static String getOutputPath(final CtSimpleType<?> type) {
+        final CtPackage pkg = type.getPackage();
+        if (pkg == null || CtPackage.TOP_LEVEL_PACKAGE_NAME.equals(pkg.getQualifiedName())) {
+            return type.getSimpleName() + JAVA_EXTENSION;
+        }
+        return pkg.getQualifiedName().replace('.', '/') + '/' + type.getSimpleName() + JAVA_EXTENSION;
+    }
+
+    /**
+     * Get the path of the file that the source file of a top-level type is copied to relative to the output
+     * directory. This differs from {@link #getOutputPath(CtSimpleType)} when the type is not the main type of its
+     * source file.
+     *
+     * @param type The top-level type.
+     * @return The relative path using {@code /} as the separator.
+     */
+    public static String getCopyPath(final CtSimpleType<?> type) {
+        final File source = getSourceFile(type);
+        if (source == null) {
+            return getOutputPath(type);
+        }
+        final CtPackage pkg = type.getPackage();
+        if (pkg == null || CtPackage.TOP_LEVEL_PACKAGE_NAME.equals(pkg.getQualifiedName())) {
+            return source.getName();
+        }
+        return pkg.getQualifiedName().replace('.', '/') + '/' + source.getName();
+    }
+}
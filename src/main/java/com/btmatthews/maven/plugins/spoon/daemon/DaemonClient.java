@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.daemon;
+
+import com.btmatthews.maven.plugins.spoon.BuildRequest;
+import com.btmatthews.maven.plugins.spoon.BuildResult;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Sends build requests to the {@link SpoonDaemon}, starting it if it is not already running. A daemon started by a
+ * different version of the plugin is not used and a new daemon is started in its place.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public final class DaemonClient {
+
+    /**
+     * The time in milliseconds to wait for a newly started daemon to publish its daemon file.
+     */
+    private static final long STARTUP_TIMEOUT = 30000;
+    /**
+     * The time in milliseconds between checks for the daemon file while the daemon is starting.
+     */
+    private static final long STARTUP_POLL_INTERVAL = 100;
+    /**
+     * Serialises the starting of the daemon by the modules of a parallel build.
+     */
+    private static final Object START_LOCK = new Object();
+
+    /**
+     * Prevent instantiation.
+     */
+    private DaemonClient() {
+    }
+
+    /**
+     * Execute a build request in the daemon.
+     *
+     * @param daemonFile The file in which the daemon publishes its port and token.
+     * @param request    The build request.
+     * @param classpath  The class path used to start the daemon if it is not running.
+     * @param log        Used to log problems communicating with the daemon.
+     * @return The build result or {@code null} if the daemon could not be reached.
+     */
+    public static BuildResult execute(final File daemonFile,
+                                      final BuildRequest request,
+                                      final List<File> classpath,
+                                      final Log log) {
+        final String version = request.getPluginVersion();
+        Properties properties = readProperties(daemonFile);
+        Socket socket = connect(properties, version);
+        if (socket == null) {
+            synchronized (START_LOCK) {
+                properties = readProperties(daemonFile);
+                socket = connect(properties, version);
+                if (socket == null) {
+                    properties = start(daemonFile, version, classpath, log);
+                    socket = connect(properties, version);
+                }
+            }
+        }
+        if (socket == null) {
+            return null;
+        }
+        try {
+            try {
+                final ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+                out.writeUTF(properties.getProperty(SpoonDaemon.TOKEN_KEY));
+                out.writeUTF(version);
+                out.writeObject(request);
+                out.flush();
+                final ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+                return (BuildResult) in.readObject();
+            } finally {
+                socket.close();
+            }
+        } catch (final IOException e) {
+            log.warn("Unable to communicate with the Spoon daemon: " + e.getMessage());
+            return null;
+        } catch (final ClassNotFoundException e) {
+            log.warn("Unable to communicate with the Spoon daemon: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read the daemon file.
+     *
+     * @param daemonFile The daemon file.
+     * @return The port and token or empty properties if the daemon file could not be read.
+     */
+    static Properties readProperties(final File daemonFile) {
+        final Properties properties = new Properties();
+        if (daemonFile.isFile()) {
+            try {
+                final InputStream in = new FileInputStream(daemonFile);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (final IOException e) {
+                properties.clear();
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Connect to the daemon.
+     *
+     * @param properties The port, token and plugin version read from the daemon file.
+     * @param version    The version of the plugin.
+     * @return The connection or {@code null} if the daemon is not running or was started by a different version
+     *         of the plugin.
+     */
+    private static Socket connect(final Properties properties, final String version) {
+        final String port = properties.getProperty(SpoonDaemon.PORT_KEY);
+        if (port == null || properties.getProperty(SpoonDaemon.TOKEN_KEY) == null
+                || !version.equals(properties.getProperty(SpoonDaemon.VERSION_KEY))) {
+            return null;
+        }
+        try {
+            return new Socket(InetAddress.getByName(null), Integer.parseInt(port));
+        } catch (final NumberFormatException e) {
+            return null;
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Start the daemon in a new JVM and wait for it to publish its daemon file.
+     *
+     * @param daemonFile The file in which the daemon publishes its port and token.
+     * @param version    The version of the plugin.
+     * @param classpath  The class path of the daemon.
+     * @param log        Used to log the start of the daemon.
+     * @return The port, token and plugin version or empty properties if the daemon did not start in time.
+     */
+    private static Properties start(final File daemonFile,
+                                    final String version,
+                                    final List<File> classpath,
+                                    final Log log) {
+        final StringBuilder path = new StringBuilder();
+        for (final File element : classpath) {
+            if (path.length() > 0) {
+                path.append(File.pathSeparatorChar);
+            }
+            path.append(element.getAbsolutePath());
+        }
+        final List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+        command.add("-cp");
+        command.add(path.toString());
+        command.add(SpoonDaemon.class.getName());
+        command.add(daemonFile.getAbsolutePath());
+        command.add(version);
+        log.info("Starting the Spoon daemon");
+        daemonFile.delete();
+        try {
+            final Process process = new ProcessBuilder(command).start();
+            process.getOutputStream().close();
+            process.getInputStream().close();
+            process.getErrorStream().close();
+            final long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+            while (System.currentTimeMillis() < deadline) {
+                final Properties properties = readProperties(daemonFile);
+                if (properties.getProperty(SpoonDaemon.TOKEN_KEY) != null) {
+                    return properties;
+                }
+                Thread.sleep(STARTUP_POLL_INTERVAL);
+            }
+            log.warn("The Spoon daemon did not start within " + STARTUP_TIMEOUT + " ms");
+        } catch (final IOException e) {
+            log.warn("Unable to start the Spoon daemon: " + e.getMessage());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new Properties();
+    }
+}
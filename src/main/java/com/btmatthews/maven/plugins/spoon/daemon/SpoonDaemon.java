@@ -0,0 +1,255 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.daemon;
+
+import com.btmatthews.maven.plugins.spoon.BuildMetrics;
+import com.btmatthews.maven.plugins.spoon.BuildRequest;
+import com.btmatthews.maven.plugins.spoon.BuildResult;
+import com.btmatthews.maven.plugins.spoon.CompilerDiagnostics;
+import com.btmatthews.maven.plugins.spoon.SpoonRunner;
+import com.btmatthews.maven.plugins.spoon.TooManyErrorsException;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import spoon.support.builder.SharedNameEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-lived process that executes build requests sent by the Maven plugin over a local socket. The daemon keeps
+ * the JIT-compiled code, the processor class loaders, compiled Groovy scripts and opened class path archives warm
+ * between builds. It listens on the loopback interface only and publishes its port together with a random token
+ * that clients must present in a daemon file that is only readable by its owner. The daemon file and the handshake
+ * also carry the plugin version so that a daemon started by a different version of the plugin is not used. The
+ * daemon exits when it has been idle for {@link #IDLE_TIMEOUT} milliseconds.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public final class SpoonDaemon {
+
+    /**
+     * The daemon file property holding the port the daemon listens on.
+     */
+    static final String PORT_KEY = "port";
+    /**
+     * The daemon file property holding the token that clients must present.
+     */
+    static final String TOKEN_KEY = "token";
+    /**
+     * The daemon file property holding the version of the plugin that started the daemon.
+     */
+    static final String VERSION_KEY = "version";
+    /**
+     * The time in milliseconds the daemon waits for a request before it exits.
+     */
+    private static final int IDLE_TIMEOUT = 3 * 60 * 60 * 1000;
+    /**
+     * The file in which the daemon publishes its port and token.
+     */
+    private final File daemonFile;
+    /**
+     * The token that clients must present.
+     */
+    private final String token;
+    /**
+     * The version of the plugin that started the daemon.
+     */
+    private final String version;
+    /**
+     * Used to log the progress of the builds.
+     */
+    private final Log log = new SystemStreamLog();
+    /**
+     * The number of requests that are being executed.
+     */
+    private final AtomicInteger activeRequests = new AtomicInteger();
+
+    /**
+     * Initialise the daemon.
+     *
+     * @param daemonFile The file in which the daemon publishes its port and token.
+     * @param version    The version of the plugin that started the daemon.
+     */
+    private SpoonDaemon(final File daemonFile, final String version) {
+        this.daemonFile = daemonFile;
+        this.version = version;
+        this.token = new BigInteger(130, new SecureRandom()).toString(32);
+    }
+
+    /**
+     * Start the daemon. The standard output and error streams are redirected to a log file next to the daemon file
+     * because the process that started the daemon does not read them.
+     *
+     * @param args The path of the daemon file and the version of the plugin that started the daemon.
+     * @throws IOException If there was a problem creating the server socket or publishing the daemon file.
+     */
+    public static void main(final String[] args) throws IOException {
+        final File daemonFile = new File(args[0]);
+        daemonFile.getParentFile().mkdirs();
+        final PrintStream logStream = new PrintStream(
+                new FileOutputStream(new File(daemonFile.getParentFile(), "spoon-daemon.log"), true), true);
+        System.setOut(logStream);
+        System.setErr(logStream);
+        new SpoonDaemon(daemonFile, args[1]).run();
+        System.exit(0);
+    }
+
+    /**
+     * Accept requests until the daemon has been idle for {@link #IDLE_TIMEOUT} milliseconds.
+     *
+     * @throws IOException If there was a problem creating the server socket or publishing the daemon file.
+     */
+    private void run() throws IOException {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName(null));
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            serverSocket.setSoTimeout(IDLE_TIMEOUT);
+            publish(serverSocket.getLocalPort());
+            log.info("Spoon daemon listening on port " + serverSocket.getLocalPort());
+            while (true) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    activeRequests.incrementAndGet();
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                handle(socket);
+                            } finally {
+                                // close the jar files between builds so they can be deleted or rebuilt
+                                if (activeRequests.decrementAndGet() == 0) {
+                                    SharedNameEnvironment.closeAll();
+                                }
+                            }
+                        }
+                    });
+                } catch (final SocketTimeoutException e) {
+                    if (activeRequests.get() == 0) {
+                        log.info("Spoon daemon idle, exiting");
+                        break;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+            serverSocket.close();
+            if (token.equals(DaemonClient.readProperties(daemonFile).getProperty(TOKEN_KEY))) {
+                daemonFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Publish the port, token and plugin version in the daemon file. The file is written to a temporary file and then renamed so
+     * that clients never read a partial file.
+     *
+     * @param port The port the daemon listens on.
+     * @throws IOException If there was a problem writing the daemon file.
+     */
+    private void publish(final int port) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(PORT_KEY, Integer.toString(port));
+        properties.setProperty(TOKEN_KEY, token);
+        properties.setProperty(VERSION_KEY, version);
+        final File temp = new File(daemonFile.getPath() + "." + System.nanoTime() + ".tmp");
+        temp.createNewFile();
+        temp.setReadable(false, false);
+        temp.setReadable(true, true);
+        final OutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, "Spoon daemon");
+        } finally {
+            out.close();
+        }
+        daemonFile.delete();
+        if (!temp.renameTo(daemonFile)) {
+            temp.delete();
+            throw new IOException("Unable to publish: " + daemonFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Execute a build request and send the result back to the client. Exceptions that abort the build are returned
+     * in the result. Exceptions other than {@link TooManyErrorsException} and {@link MojoExecutionException} are
+     * replaced by a {@link MojoExecutionException} because their causes may not be serializable.
+     *
+     * @param socket The client connection.
+     */
+    private void handle(final Socket socket) {
+        try {
+            try {
+                final ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+                if (!token.equals(in.readUTF())) {
+                    log.warn("Rejected a request with an invalid token");
+                    return;
+                }
+                final String clientVersion = in.readUTF();
+                if (!version.equals(clientVersion)) {
+                    log.warn("Rejected a request from version " + clientVersion + " of the plugin");
+                    return;
+                }
+                final BuildRequest request = (BuildRequest) in.readObject();
+                final CompilerDiagnostics diagnostics = new CompilerDiagnostics();
+                final BuildMetrics buildMetrics = request.isMetrics() ? new BuildMetrics() : BuildMetrics.DISABLED;
+                BuildResult result;
+                try {
+                    result = new SpoonRunner(log).run(request, buildMetrics, diagnostics);
+                } catch (final TooManyErrorsException e) {
+                    result = new BuildResult();
+                    result.setFailure(e);
+                } catch (final MojoExecutionException e) {
+                    log.error(e.getMessage(), e);
+                    result = new BuildResult();
+                    result.setFailure(new MojoExecutionException(e.getMessage()));
+                } catch (final Exception e) {
+                    log.error(e.getMessage(), e);
+                    result = new BuildResult();
+                    result.setFailure(new MojoExecutionException(e.toString()));
+                }
+                result.setDiagnostics(diagnostics);
+                if (request.isMetrics()) {
+                    result.setMetrics(buildMetrics);
+                }
+                final ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+                out.writeObject(result);
+                out.flush();
+            } finally {
+                socket.close();
+            }
+        } catch (final IOException e) {
+            log.error("Unable to handle request", e);
+        } catch (final ClassNotFoundException e) {
+            log.error("Unable to handle request", e);
+        }
+    }
+}
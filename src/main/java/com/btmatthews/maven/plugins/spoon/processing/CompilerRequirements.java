@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.processing;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares which of the optional compiler phases a processor depends on. A phase is skipped when every processor
+ * declares that it does not need it unless the phase is explicitly enabled in the plugin configuration. Processors
+ * without this annotation need every phase.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface CompilerRequirements {
+
+    /**
+     * Indicates whether the processor depends on the flow analysis of the method bodies, which also reports
+     * problems such as unreachable code and uninitialised local variables.
+     *
+     * @return {@code true} if flow analysis is needed.
+     */
+    boolean flowAnalysis() default true;
+
+    /**
+     * Indicates whether the processor reads the doc comments of the model. Doc comments are only dropped from the
+     * model if the source files are copied to the output directory unchanged because otherwise they would be lost
+     * from the processed source files.
+     *
+     * @return {@code true} if doc comments are needed.
+     */
+    boolean javadoc() default true;
+}
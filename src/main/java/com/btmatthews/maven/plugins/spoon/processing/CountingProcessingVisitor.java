@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.processing;
+
+import spoon.processing.Processor;
+import spoon.reflect.Factory;
+import spoon.reflect.declaration.CtElement;
+import spoon.support.visitor.ProcessingVisitor;
+
+/**
+ * A processing visitor that counts the visited elements that are instances of the element types processed by the
+ * processor.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+class CountingProcessingVisitor extends ProcessingVisitor {
+
+    /**
+     * The element types processed by the processor.
+     */
+    private Class<?>[] types = new Class<?>[0];
+    /**
+     * The number of visited elements that are instances of the processed element types.
+     */
+    private long count;
+
+    /**
+     * Initialise the visitor.
+     *
+     * @param factory The factory that owns the model.
+     */
+    CountingProcessingVisitor(final Factory factory) {
+        super(factory);
+    }
+
+    /**
+     * Set the processor applied to the visited elements.
+     *
+     * @param processor The processor.
+     */
+    @Override
+    public void setProcessor(final Processor<?> processor) {
+        super.setProcessor(processor);
+        types = processor.getProcessedElementTypes().toArray(new Class<?>[0]);
+    }
+
+    /**
+     * Count the element if it is an instance of the processed element types and then visit it.
+     *
+     * @param element The element.
+     */
+    @Override
+    public void scan(final CtElement element) {
+        if (element != null) {
+            for (final Class<?> type : types) {
+                if (type.isInstance(element)) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        super.scan(element);
+    }
+
+    /**
+     * Get the number of visited elements that are instances of the processed element types.
+     *
+     * @return The number of elements.
+     */
+    long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.processing;
+
+import com.btmatthews.maven.plugins.spoon.BuildMetrics;
+import com.btmatthews.maven.plugins.spoon.BuildScheduler;
+import com.btmatthews.maven.plugins.spoon.MavenEnvironment;
+import com.btmatthews.maven.plugins.spoon.Tasks;
+import com.btmatthews.maven.plugins.spoon.Types;
+import org.codehaus.plexus.util.IOUtil;
+import spoon.processing.Environment;
+import spoon.reflect.cu.CompilationUnit;
+import spoon.reflect.declaration.CtSimpleType;
+import spoon.reflect.visitor.DefaultJavaPrettyPrinter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the top-level types in the model to Java source files. This replaces the
+ * {@link spoon.support.JavaOutputProcessor} with an output stage that pretty-prints the types in parallel and
+ * leaves existing files untouched if their contents would not change. Keeping the modification times of
+ * unchanged files allows the compiler plugin to compile the processed sources incrementally.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class JavaOutputWriter {
+
+    /**
+     * The environment used to configure the pretty-printer.
+     */
+    private final Environment environment;
+    /**
+     * The output directory.
+     */
+    private final File outputDirectory;
+    /**
+     * The character encoding of the output files or {@code null} to use the platform encoding.
+     */
+    private final String encoding;
+    /**
+     * The number of threads used to pretty-print the types.
+     */
+    private final int threads;
+    /**
+     * The number of files that were written.
+     */
+    private final AtomicInteger writtenCount = new AtomicInteger();
+    /**
+     * The number of files that were left untouched because their contents did not change.
+     */
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    /**
+     * The files that were written.
+     */
+    private final List<File> writtenFiles = Collections.synchronizedList(new ArrayList<File>());
+    /**
+     * The relative paths of the source files that have been copied.
+     */
+    private final Set<String> copiedPaths = Collections.synchronizedSet(new HashSet<String>());
+    /**
+     * The relative paths of the output files generated from each source file keyed by the absolute path of the
+     * source file.
+     */
+    private final Map<String, List<String>> outputs = new LinkedHashMap<String, List<String>>();
+    /**
+     * Indicates whether the source files of the types are copied instead of pretty-printing the types.
+     */
+    private boolean copySources;
+
+    /**
+     * Initialise the output stage.
+     *
+     * @param environment     The environment used to configure the pretty-printer.
+     * @param outputDirectory The output directory.
+     * @param encoding        The character encoding of the output files or {@code null} to use the platform
+     *                        encoding.
+     * @param threads         The number of threads used to pretty-print the types.
+     */
+    public JavaOutputWriter(final Environment environment,
+                            final File outputDirectory,
+                            final String encoding,
+                            final int threads) {
+        this.environment = environment;
+        this.outputDirectory = outputDirectory;
+        this.encoding = encoding;
+        this.threads = threads;
+    }
+
+    /**
+     * Set whether the source files of the types are copied instead of pretty-printing the types. This is used when
+     * the model was built without method bodies and the processors did not modify it.
+     *
+     * @param copySources {@code true} if the source files are copied.
+     */
+    public void setCopySources(final boolean copySources) {
+        this.copySources = copySources;
+    }
+
+    /**
+     * Write the top-level types using the worker pool.
+     *
+     * @param types The top-level types.
+     */
+    public void writeAll(final List<CtSimpleType<?>> types) {
+        if (threads <= 1) {
+            for (final CtSimpleType<?> type : types) {
+                write(type);
+            }
+            return;
+        }
+        final BuildMetrics metrics;
+        if (environment instanceof MavenEnvironment) {
+            metrics = ((MavenEnvironment) environment).getMetrics();
+        } else {
+            metrics = BuildMetrics.DISABLED;
+        }
+        final AtomicInteger next = new AtomicInteger();
+        final List<Callable<Object>> workers = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Callable<Object>() {
+                public Object call() {
+                    final BuildMetrics.Sample start = metrics.sample();
+                    for (int j = next.getAndIncrement(); j < types.size(); j = next.getAndIncrement()) {
+                        write(types.get(j));
+                    }
+                    metrics.recordWork("output", start);
+                    return null;
+                }
+            });
+        }
+        Tasks.invokeAll(BuildScheduler.getExecutor(), workers);
+    }
+
+    /**
+     * Pretty-print a top-level type, or copy its source file, and write it to the output directory unless the
+     * existing file already has the same contents. This method is thread-safe.
+     *
+     * @param type The top-level type.
+     */
+    public void write(final CtSimpleType<?> type) {
+        if (copySources && Types.getSourceFile(type) != null) {
+            addOutput(type, Types.getCopyPath(type));
+            copy(type);
+            return;
+        }
+        addOutput(type, Types.getOutputPath(type));
+        CompilationUnit cu = null;
+        if (type.getPosition() != null) {
+            cu = type.getPosition().getCompilationUnit();
+        }
+        final List<CtSimpleType<?>> toBePrinted = new ArrayList<CtSimpleType<?>>();
+        toBePrinted.add(type);
+        final DefaultJavaPrettyPrinter printer = new DefaultJavaPrettyPrinter(environment);
+        printer.calculate(cu, toBePrinted);
+        final File file = new File(outputDirectory, Types.getOutputPath(type));
+        try {
+            store(file, getBytes(printer.getResult().toString()));
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to write: " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Record the output file generated from the source file of a top-level type.
+     *
+     * @param type   The top-level type.
+     * @param output The relative path of the output file.
+     */
+    private void addOutput(final CtSimpleType<?> type, final String output) {
+        final File source = Types.getSourceFile(type);
+        if (source != null) {
+            synchronized (outputs) {
+                List<String> files = outputs.get(source.getAbsolutePath());
+                if (files == null) {
+                    files = new ArrayList<String>();
+                    outputs.put(source.getAbsolutePath(), files);
+                }
+                if (!files.contains(output)) {
+                    files.add(output);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the source file of a top-level type to the output directory. A source file declaring several top-level
+     * types is only copied once.
+     *
+     * @param type The top-level type.
+     */
+    private void copy(final CtSimpleType<?> type) {
+        final String path = Types.getCopyPath(type);
+        if (!copiedPaths.add(path)) {
+            return;
+        }
+        final File file = new File(outputDirectory, path);
+        try {
+            final InputStream in = new FileInputStream(Types.getSourceFile(type));
+            try {
+                store(file, IOUtil.toByteArray(in));
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to write: " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Write a file unless it already has the same contents.
+     *
+     * @param file     The file.
+     * @param contents The contents.
+     * @throws IOException If there was a problem reading or writing the file.
+     */
+    private void store(final File file, final byte[] contents) throws IOException {
+        if (hasContents(file, contents)) {
+            skippedCount.incrementAndGet();
+        } else {
+            file.getParentFile().mkdirs();
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(contents);
+            } finally {
+                out.close();
+            }
+            writtenCount.incrementAndGet();
+            writtenFiles.add(file);
+        }
+    }
+
+    /**
+     * Get the number of files that were written.
+     *
+     * @return The number of files.
+     */
+    public int getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Get the number of files that were left untouched because their contents did not change.
+     *
+     * @return The number of files.
+     */
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * Get the output files generated from each source file, including the files that were left untouched.
+     *
+     * @return The relative paths of the output files keyed by the absolute path of the source file.
+     */
+    public Map<String, List<String>> getOutputs() {
+        synchronized (outputs) {
+            return new LinkedHashMap<String, List<String>>(outputs);
+        }
+    }
+
+    /**
+     * Get the files that were written.
+     *
+     * @return The files.
+     */
+    public List<File> getWrittenFiles() {
+        synchronized (writtenFiles) {
+            return new ArrayList<File>(writtenFiles);
+        }
+    }
+
+    /**
+     * Encode the pretty-printed source code.
+     *
+     * @param source The source code.
+     * @return The encoded source code.
+     * @throws IOException If the encoding is not supported.
+     */
+    private byte[] getBytes(final String source) throws IOException {
+        if (encoding == null) {
+            return source.getBytes();
+        }
+        return source.getBytes(encoding);
+    }
+
+    /**
+     * Check whether a file exists and has the expected contents. The lengths are compared first so that the file
+     * only has to be read if they match.
+     *
+     * @param file     The file.
+     * @param contents The expected contents.
+     * @return {@code true} if the file has the expected contents.
+     * @throws IOException If there was a problem reading the file.
+     */
+    private static boolean hasContents(final File file, final byte[] contents) throws IOException {
+        if (!file.isFile() || file.length() != contents.length) {
+            return false;
+        }
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[8192];
+            int offset = 0;
+            int count = in.read(buffer);
+            while (count != -1) {
+                if (offset + count > contents.length) {
+                    return false;
+                }
+                for (int i = 0; i < count; i++) {
+                    if (buffer[i] != contents[offset + i]) {
+                        return false;
+                    }
+                }
+                offset += count;
+                count = in.read(buffer);
+            }
+            return offset == contents.length;
+        } finally {
+            in.close();
+        }
+    }
+}
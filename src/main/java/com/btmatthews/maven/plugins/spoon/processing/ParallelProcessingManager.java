@@ -0,0 +1,360 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.processing;
+
+import com.btmatthews.maven.plugins.spoon.BuildMetrics;
+import com.btmatthews.maven.plugins.spoon.BuildScheduler;
+import com.btmatthews.maven.plugins.spoon.Tasks;
+import spoon.processing.Processor;
+import spoon.reflect.Factory;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtPackage;
+import spoon.reflect.declaration.CtSimpleType;
+import spoon.support.QueueProcessingManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A processing manager that applies processors annotated with {@link ReadOnly} or {@link TypeLocal} to the
+ * top-level types concurrently using a pool of worker threads. All other processors are applied serially to the
+ * whole model in the same way as the {@link QueueProcessingManager}. The processors are still applied one after
+ * the other in the order they were added. With a single thread every processor is applied serially.
+ * <p/>
+ * The time spent and the number of elements of the processed element types visited by each processor are recorded
+ * in the {@link BuildMetrics}.
+ * <p/>
+ * If every processor is read-only or type-local the processors can instead be applied by {@link #stream}. Each
+ * top-level type is passed through the whole chain of processors and written as soon as the last processor has
+ * finished with it.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class ParallelProcessingManager extends QueueProcessingManager {
+
+    /**
+     * The number of worker threads.
+     */
+    private final int threads;
+    /**
+     * Collects the metrics for each processor.
+     */
+    private final BuildMetrics metrics;
+    /**
+     * The processor currently being applied.
+     */
+    private Processor<?> current;
+
+    /**
+     * Initialise the processing manager.
+     *
+     * @param factory The factory that owns the model.
+     * @param threads The number of worker threads.
+     */
+    public ParallelProcessingManager(final Factory factory, final int threads) {
+        this(factory, threads, BuildMetrics.DISABLED);
+    }
+
+    /**
+     * Initialise the processing manager.
+     *
+     * @param factory The factory that owns the model.
+     * @param threads The number of worker threads.
+     * @param metrics Collects the metrics for each processor.
+     */
+    public ParallelProcessingManager(final Factory factory, final int threads, final BuildMetrics metrics) {
+        super(factory);
+        this.threads = threads;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Check whether a processor can be applied to the top-level types concurrently.
+     *
+     * @param processor The processor.
+     * @return {@code true} if the processor is annotated with {@link ReadOnly} or {@link TypeLocal}.
+     */
+    public static boolean isConcurrent(final Processor<?> processor) {
+        final Class<?> type = processor.getClass();
+        return type.isAnnotationPresent(ReadOnly.class) || type.isAnnotationPresent(TypeLocal.class);
+    }
+
+    /**
+     * Get the processor currently being applied.
+     *
+     * @return The processor.
+     */
+    @Override
+    public Processor<?> getCurrentProcessor() {
+        return current;
+    }
+
+    /**
+     * Apply the processors to the elements.
+     *
+     * @param elements The elements, usually the root packages.
+     */
+    @Override
+    public void process(final Collection<? extends CtElement> elements) {
+        final ExecutorService executor = threads > 1 ? BuildScheduler.getExecutor() : null;
+        try {
+            Processor<?> processor = getProcessors().poll();
+            while (processor != null) {
+                getFactory().getEnvironment().reportProgressMessage(processor.getClass().getName());
+                final BuildMetrics.Sample start = metrics.sample();
+                current = processor;
+                processor.init();
+                long count = 0;
+                if (executor != null && isConcurrent(processor)) {
+                    // an earlier processor may have added or removed top-level types
+                    final List<CtPackage> packages = new ArrayList<CtPackage>();
+                    final List<CtElement> units = new ArrayList<CtElement>();
+                    split(elements, packages, units);
+                    for (final CtPackage pkg : packages) {
+                        count += processElement(processor, pkg);
+                    }
+                    count += processConcurrently(executor, processor, units);
+                } else {
+                    final CountingProcessingVisitor visitor = new CountingProcessingVisitor(getFactory());
+                    visitor.setProcessor(processor);
+                    for (final CtElement element : new ArrayList<CtElement>(elements)) {
+                        visitor.scan(element);
+                    }
+                    count = visitor.getCount();
+                }
+                processor.processingDone();
+                metrics.record("processor " + processor.getClass().getName(), start, count);
+                processor = getProcessors().poll();
+            }
+        } finally {
+            current = null;
+        }
+    }
+
+    /**
+     * Check whether every processor can be applied by {@link #stream(JavaOutputWriter)}.
+     *
+     * @return {@code true} if every processor is annotated with {@link ReadOnly} or {@link TypeLocal}.
+     */
+    public boolean isStreamable() {
+        for (final Processor<?> processor : getProcessors()) {
+            if (!isConcurrent(processor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply the processors to the model one top-level type at a time. Each type is passed through every processor
+     * in order and then written by the output stage so writing the output overlaps with processing. The processors
+     * must not depend on the processed state of other top-level types. The written types stay in the model because
+     * a later type may still resolve references to them.
+     * <p/>
+     * The CPU time, allocated bytes and element count of each processor are recorded against the processor. The
+     * wall time of the processors cannot be separated because the types are interleaved, so it is only recorded
+     * for the streaming phase as a whole.
+     *
+     * @param writer The output stage.
+     */
+    public void stream(final JavaOutputWriter writer) {
+        final List<CtPackage> packages = new ArrayList<CtPackage>();
+        final List<CtElement> units = new ArrayList<CtElement>();
+        split(getFactory().Package().getAllRoots(), packages, units);
+        final List<Processor<?>> processors = new ArrayList<Processor<?>>();
+        Processor<?> processor = getProcessors().poll();
+        while (processor != null) {
+            processors.add(processor);
+            processor = getProcessors().poll();
+        }
+        final List<String> phases = new ArrayList<String>();
+        for (final Processor<?> p : processors) {
+            phases.add("processor " + p.getClass().getName());
+        }
+        final BuildMetrics.Sample start = metrics.sample();
+        try {
+            for (int i = 0; i < processors.size(); i++) {
+                final BuildMetrics.Sample processorStart = metrics.sample();
+                current = processors.get(i);
+                current.init();
+                long count = 0;
+                for (final CtPackage pkg : packages) {
+                    count += processElement(current, pkg);
+                }
+                metrics.record(phases.get(i), processorStart, count);
+            }
+            current = null;
+            if (threads > 1) {
+                final AtomicInteger next = new AtomicInteger();
+                final List<Callable<Object>> workers = new ArrayList<Callable<Object>>();
+                for (int i = 0; i < threads; i++) {
+                    workers.add(new Callable<Object>() {
+                        public Object call() {
+                            final List<CountingProcessingVisitor> visitors = createVisitors(processors);
+                            for (int j = next.getAndIncrement(); j < units.size(); j = next.getAndIncrement()) {
+                                streamUnit(visitors, phases, units.get(j), writer);
+                            }
+                            return null;
+                        }
+                    });
+                }
+                Tasks.invokeAll(BuildScheduler.getExecutor(), workers);
+            } else {
+                final List<CountingProcessingVisitor> visitors = createVisitors(processors);
+                for (final CtElement unit : units) {
+                    streamUnit(visitors, phases, unit, writer);
+                }
+            }
+            for (int i = 0; i < processors.size(); i++) {
+                final BuildMetrics.Sample processorStart = metrics.sample();
+                current = processors.get(i);
+                current.processingDone();
+                metrics.record(phases.get(i), processorStart);
+            }
+        } finally {
+            current = null;
+        }
+        metrics.record("streaming", start, units.size());
+    }
+
+    /**
+     * Create a processing visitor for each processor. The visitors are not thread-safe so each worker creates its
+     * own.
+     *
+     * @param processors The processors.
+     * @return The visitors in the same order as the processors.
+     */
+    private List<CountingProcessingVisitor> createVisitors(final List<Processor<?>> processors) {
+        final List<CountingProcessingVisitor> visitors = new ArrayList<CountingProcessingVisitor>();
+        for (final Processor<?> processor : processors) {
+            final CountingProcessingVisitor visitor = new CountingProcessingVisitor(getFactory());
+            visitor.setProcessor(processor);
+            visitors.add(visitor);
+        }
+        return visitors;
+    }
+
+    /**
+     * Pass a unit of work through every processor and then write it if it is a top-level type. The work done by
+     * each processor is recorded against its phase.
+     *
+     * @param visitors The visitors that apply the processors.
+     * @param phases   The metrics phase of each processor in the same order as the visitors.
+     * @param unit     The unit of work, usually a top-level type.
+     * @param writer   The output stage.
+     */
+    private void streamUnit(final List<CountingProcessingVisitor> visitors,
+                            final List<String> phases,
+                            final CtElement unit,
+                            final JavaOutputWriter writer) {
+        BuildMetrics.Sample start = metrics.sample();
+        for (int i = 0; i < visitors.size(); i++) {
+            final CountingProcessingVisitor visitor = visitors.get(i);
+            final long count = visitor.getCount();
+            visitor.scan(unit);
+            start = metrics.recordWork(phases.get(i), start, visitor.getCount() - count);
+        }
+        if (unit instanceof CtSimpleType) {
+            writer.write((CtSimpleType<?>) unit);
+        }
+    }
+
+    /**
+     * Apply a processor to each unit of work using the worker pool. Each worker uses its own
+     * processing visitor because the visitor is not thread-safe.
+     *
+     * @param executor  The worker pool.
+     * @param processor The processor.
+     * @param units     The units of work, usually the top-level types.
+     * @return The number of visited elements that are instances of the processed element types.
+     */
+    private long processConcurrently(final ExecutorService executor,
+                                     final Processor<?> processor,
+                                     final List<CtElement> units) {
+        final String phase = "processor " + processor.getClass().getName();
+        final AtomicInteger next = new AtomicInteger();
+        final List<Callable<Long>> workers = new ArrayList<Callable<Long>>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Callable<Long>() {
+                public Long call() {
+                    final BuildMetrics.Sample start = metrics.sample();
+                    final CountingProcessingVisitor visitor = new CountingProcessingVisitor(getFactory());
+                    visitor.setProcessor(processor);
+                    for (int j = next.getAndIncrement(); j < units.size(); j = next.getAndIncrement()) {
+                        visitor.scan(units.get(j));
+                    }
+                    metrics.recordWork(phase, start);
+                    return visitor.getCount();
+                }
+            });
+        }
+        long count = 0;
+        for (final Long workerCount : Tasks.invokeAll(executor, workers)) {
+            count += workerCount;
+        }
+        return count;
+    }
+
+    /**
+     * Apply a processor to a single element without visiting its children.
+     *
+     * @param processor The processor.
+     * @param element   The element.
+     * @return {@code 1} if the element is an instance of the processed element types or {@code 0} otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    private long processElement(final Processor<?> processor, final CtElement element) {
+        final Processor<CtElement> p = (Processor<CtElement>) processor;
+        for (final Class<? extends CtElement> type : p.getProcessedElementTypes()) {
+            if (type.isInstance(element)) {
+                if (p.isToBeProcessed(element)) {
+                    p.process(element);
+                }
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Split the elements into the packages and the units of work that can be processed concurrently. Packages are
+     * expanded into their sub-packages and top-level types, other elements are units of work in their own right.
+     *
+     * @param elements The elements.
+     * @param packages Receives the packages.
+     * @param units    Receives the units of work.
+     */
+    private static void split(final Collection<? extends CtElement> elements,
+                              final List<CtPackage> packages,
+                              final List<CtElement> units) {
+        for (final CtElement element : elements) {
+            if (element instanceof CtPackage) {
+                final CtPackage pkg = (CtPackage) element;
+                packages.add(pkg);
+                units.addAll(pkg.getTypes());
+                split(pkg.getPackages(), packages, units);
+            } else {
+                units.add(element);
+            }
+        }
+    }
+}
@@ -17,16 +17,23 @@
 package com.btmatthews.maven.plugins.spoon.processors;
 
 import groovy.lang.Binding;
-import groovy.lang.GroovyShell;
-import groovy.lang.Script;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import spoon.processing.AbstractProcessor;
 import spoon.reflect.declaration.CtElement;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * A processor that delegates the processing to a Groovy script.
+ * A processor that delegates the processing to a Groovy script. The script is compiled once and each thread that
+ * applies the processor gets its own instance of the script class with a binding that is reused for every element.
+ * The element and factory are cleared from the script once it has run. The instances are held by the processor
+ * rather than by the worker threads, which outlive the build, and are all discarded once processing is done so that
+ * neither the model nor the script class loader stays reachable.
  *
  * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
  * @since 1.0.0
@@ -42,31 +49,173 @@ public class GroovyProcessor<T extends CtElement> extends AbstractProcessor<T> {
      */
     private static final String FACTORY_BINDING = "factory";
     /**
-     * The parsed Groovy script.
+     * The compiled Groovy script.
      */
-    private final Script script;
+    private final Class<?> scriptClass;
+    /**
+     * Indicates whether the script overrides {@link SpoonScript#isToBeProcessed(CtElement)}.
+     */
+    private final boolean filtered;
+    /**
+     * The instance of the script class used by each thread.
+     */
+    private final ConcurrentMap<Thread, SpoonScript> scripts = new ConcurrentHashMap<Thread, SpoonScript>();
 
     /**
-     * Initialise the processor by loading and parsing the Groovy script file.
+     * Initialise the processor by loading and compiling the Groovy script file.
      *
      * @param script The Groovy script file.
      * @throws IOException If there was a problem parsing the Groovy script.
      */
     public GroovyProcessor(final File script) throws IOException {
-        this.script = new GroovyShell().parse(script);
+        this(script, false);
+    }
+
+    /**
+     * Initialise the processor by loading and compiling the Groovy script file.
+     *
+     * @param script        The Groovy script file.
+     * @param compileStatic If {@code true} the script is compiled with {@link groovy.transform.CompileStatic}.
+     * @throws IOException If there was a problem parsing the Groovy script.
+     * @since 1.0.1
+     */
+    public GroovyProcessor(final File script, final boolean compileStatic) throws IOException {
+        this(script, compileStatic, new GroovyScriptCache(null, null));
+    }
+
+    /**
+     * Initialise the processor by obtaining the compiled Groovy script from a cache.
+     *
+     * @param script        The Groovy script file.
+     * @param compileStatic If {@code true} the script is compiled with {@link groovy.transform.CompileStatic}.
+     * @param cache         The cache of compiled scripts.
+     * @throws IOException If there was a problem parsing the Groovy script.
+     * @since 1.0.1
+     */
+    public GroovyProcessor(final File script, final boolean compileStatic, final GroovyScriptCache cache)
+            throws IOException {
+        this.scriptClass = cache.getScriptClass(script, compileStatic);
+        this.filtered = overridesIsToBeProcessed(scriptClass);
+        setProcessedElementTypes(createScript().processes());
+    }
+
+    /**
+     * Check whether the element is to be processed. This is delegated to the script if it overrides
+     * {@link SpoonScript#isToBeProcessed(CtElement)} so the element can be filtered without running the script.
+     *
+     * @param element The element.
+     * @return {@code true} if the element is to be processed.
+     */
+    @Override
+    public boolean isToBeProcessed(final T element) {
+        if (!filtered) {
+            return true;
+        }
+        final SpoonScript script = getScript();
+        script.setFactory(getFactory());
+        try {
+            return script.isToBeProcessed(element);
+        } finally {
+            script.setFactory(null);
+        }
     }
 
     /**
-     * Invoke the Groovy script to process the {@link CtElement}.
+     * Invoke the Groovy script to process the {@link CtElement}. The element and factory are passed both as
+     * properties of the script and as variables in its binding.
      *
      * @param element The {@link CtElement} to process.
      */
     @Override
     public void process(final T element) {
-        final Binding binding = new Binding();
+        final SpoonScript script = getScript();
+        final Binding binding = script.getBinding();
+        script.setElement(element);
+        script.setFactory(getFactory());
         binding.setVariable(ELEMENT_BINDING, element);
         binding.setVariable(FACTORY_BINDING, getFactory());
-        script.setBinding(binding);
-        script.run();
+        try {
+            script.run();
+        } finally {
+            script.setElement(null);
+            script.setFactory(null);
+            binding.setVariable(ELEMENT_BINDING, null);
+            binding.setVariable(FACTORY_BINDING, null);
+        }
+    }
+
+    /**
+     * Discard the instances of the script class used by every thread once processing is complete.
+     */
+    @Override
+    public void processingDone() {
+        scripts.clear();
+    }
+
+    /**
+     * Get the instance of the script class used by the current thread, creating it if necessary. Only the current
+     * thread adds its own instance so no other thread can add one in the meantime.
+     *
+     * @return The instance of the script class.
+     */
+    private SpoonScript getScript() {
+        final Thread thread = Thread.currentThread();
+        SpoonScript script = scripts.get(thread);
+        if (script == null) {
+            script = createScript();
+            scripts.put(thread, script);
+        }
+        return script;
+    }
+
+    /**
+     * Create an instance of the script class with its own binding.
+     *
+     * @return The instance of the script class.
+     */
+    private SpoonScript createScript() {
+        return (SpoonScript) InvokerHelper.createScript(scriptClass, new Binding());
+    }
+
+    /**
+     * Narrow the processed element types to those declared by the script.
+     *
+     * @param types The value returned by {@link SpoonScript#processes()}.
+     */
+    @SuppressWarnings("unchecked")
+    private void setProcessedElementTypes(final Object types) {
+        if (types == null) {
+            return;
+        }
+        final Collection<?> classes;
+        if (types instanceof Collection) {
+            classes = (Collection<?>) types;
+        } else if (types instanceof Object[]) {
+            classes = Arrays.asList((Object[]) types);
+        } else {
+            classes = Arrays.asList(types);
+        }
+        clearProcessedElementType();
+        for (final Object type : classes) {
+            if (!(type instanceof Class) || !CtElement.class.isAssignableFrom((Class<?>) type)) {
+                throw new IllegalArgumentException("Not a processable element type: " + type);
+            }
+            addProcessedElementType((Class<? extends CtElement>) type);
+        }
+    }
+
+    /**
+     * Check whether the script class overrides {@link SpoonScript#isToBeProcessed(CtElement)}.
+     *
+     * @param scriptClass The script class.
+     * @return {@code true} if the method is overridden.
+     */
+    private static boolean overridesIsToBeProcessed(final Class<?> scriptClass) {
+        try {
+            return scriptClass.getMethod("isToBeProcessed", CtElement.class).getDeclaringClass()
+                    != SpoonScript.class;
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
     }
 }
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.processors;
+
+import com.btmatthews.maven.plugins.spoon.Digests;
+import com.btmatthews.maven.plugins.spoon.ProcessorClassLoader;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovySystem;
+import groovy.lang.Script;
+import groovy.transform.CompileStatic;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.tools.GroovyClass;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A cache of compiled Groovy processor scripts. Compiled classes are shared by the modules in the build session
+ * that load processors with the same class loader, that is with the same compile class path. Their byte code is
+ * persisted in a cache directory so that later builds can load them without compiling the scripts again. Entries
+ * are keyed by the script name and contents, the plugin and Groovy versions and the compilation mode. Scripts
+ * compiled with {@link CompileStatic} are also keyed by the contents of the compile class path because the
+ * generated byte code depends on the classes the script references.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class GroovyScriptCache {
+
+    /**
+     * The name of the file holding the entry's metadata. It is written last so an entry without it is incomplete.
+     */
+    private static final String METADATA_FILE = "script.properties";
+    /**
+     * The metadata property holding the name of the script class.
+     */
+    private static final String SCRIPT_CLASS_KEY = "scriptClass";
+    /**
+     * The metadata property holding the names of all the compiled classes.
+     */
+    private static final String CLASSES_KEY = "classes";
+    /**
+     * The compiled script classes shared by every module in the build session that loads scripts with the plugin
+     * class loader.
+     */
+    private static final ConcurrentMap<String, Class<?>> SCRIPT_CLASSES = new ConcurrentHashMap<String, Class<?>>();
+    /**
+     * The cache directory or {@code null} if compiled scripts are not persisted.
+     */
+    private final File cacheDirectory;
+    /**
+     * The version of the plugin or {@code null} if compiled scripts are not persisted.
+     */
+    private final String pluginVersion;
+    /**
+     * The class loader used as the parent of the class loaders that define the script classes.
+     */
+    private final ClassLoader parentClassLoader;
+    /**
+     * The compiled script classes that were defined with {@link #parentClassLoader} as their parent.
+     */
+    private final ConcurrentMap<String, Class<?>> scriptClasses;
+
+    /**
+     * Initialise the cache so that scripts can only reference classes visible to the plugin class loader.
+     *
+     * @param cacheDirectory The cache directory or {@code null} if compiled scripts are not persisted.
+     * @param pluginVersion  The version of the plugin or {@code null} if compiled scripts are not persisted.
+     */
+    public GroovyScriptCache(final File cacheDirectory, final String pluginVersion) {
+        this(cacheDirectory, pluginVersion, GroovyScriptCache.class.getClassLoader());
+    }
+
+    /**
+     * Initialise the cache. If the parent class loader is a {@link ProcessorClassLoader} the compiled script classes
+     * are held by it so they are discarded when it is evicted.
+     *
+     * @param cacheDirectory    The cache directory or {@code null} if compiled scripts are not persisted.
+     * @param pluginVersion     The version of the plugin or {@code null} if compiled scripts are not persisted.
+     * @param parentClassLoader The class loader used to resolve the classes referenced by the scripts.
+     */
+    public GroovyScriptCache(final File cacheDirectory,
+                             final String pluginVersion,
+                             final ClassLoader parentClassLoader) {
+        this.cacheDirectory = cacheDirectory;
+        this.pluginVersion = pluginVersion;
+        this.parentClassLoader = parentClassLoader;
+        if (parentClassLoader instanceof ProcessorClassLoader) {
+            scriptClasses = ((ProcessorClassLoader) parentClassLoader).getScriptClasses();
+        } else {
+            scriptClasses = SCRIPT_CLASSES;
+        }
+    }
+
+    /**
+     * Get the compiled script class, compiling the script only if it is not already in the cache.
+     *
+     * @param script        The Groovy script file.
+     * @param compileStatic If {@code true} the script is compiled with {@link CompileStatic}.
+     * @return The script class.
+     * @throws IOException If there was a problem reading or compiling the script.
+     */
+    public Class<?> getScriptClass(final File script, final boolean compileStatic) throws IOException {
+        final StringBuilder source = new StringBuilder();
+        source.append(script.getName()).append('\n');
+        source.append(Digests.digest(script)).append('\n');
+        source.append(pluginVersion).append('\n');
+        source.append(GroovySystem.getVersion()).append('\n');
+        source.append(compileStatic).append('\n');
+        if (compileStatic && parentClassLoader instanceof ProcessorClassLoader) {
+            source.append(((ProcessorClassLoader) parentClassLoader).getClasspathDigest()).append('\n');
+        }
+        final String key = Digests.digest(source.toString());
+        Class<?> scriptClass = scriptClasses.get(key);
+        if (scriptClass == null) {
+            scriptClass = load(key);
+            if (scriptClass == null) {
+                scriptClass = compile(key, script, compileStatic);
+            }
+            final Class<?> existing = scriptClasses.putIfAbsent(key, scriptClass);
+            if (existing != null) {
+                scriptClass = existing;
+            }
+        }
+        return scriptClass;
+    }
+
+    /**
+     * Create the compiler configuration used for processor scripts.
+     *
+     * @param compileStatic If {@code true} the script is compiled with {@link CompileStatic}.
+     * @return The compiler configuration.
+     */
+    private static CompilerConfiguration createConfiguration(final boolean compileStatic) {
+        final CompilerConfiguration configuration = new CompilerConfiguration();
+        configuration.setScriptBaseClass(SpoonScript.class.getName());
+        if (compileStatic) {
+            configuration.addCompilationCustomizers(new ASTTransformationCustomizer(CompileStatic.class));
+        }
+        return configuration;
+    }
+
+    /**
+     * Compile the script and persist the byte code if there is a cache directory.
+     *
+     * @param key           The cache key.
+     * @param script        The Groovy script file.
+     * @param compileStatic If {@code true} the script is compiled with {@link CompileStatic}.
+     * @return The script class.
+     * @throws IOException If there was a problem reading the script or writing the cache entry.
+     */
+    @SuppressWarnings("unchecked")
+    private Class<?> compile(final String key, final File script, final boolean compileStatic) throws IOException {
+        final CompilerConfiguration configuration = createConfiguration(compileStatic);
+        final GroovyClassLoader groovyClassLoader = new GroovyClassLoader(parentClassLoader, configuration);
+        final CompilationUnit unit = new CompilationUnit(configuration, null, groovyClassLoader);
+        unit.addSource(script);
+        unit.compile(Phases.CLASS_GENERATION);
+        final Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        for (final GroovyClass groovyClass : (List<GroovyClass>) unit.getClasses()) {
+            classes.put(groovyClass.getName(), groovyClass.getBytes());
+        }
+        final ByteCodeClassLoader classLoader = new ByteCodeClassLoader(parentClassLoader, classes);
+        final Class<?> scriptClass = classLoader.findScriptClass();
+        if (cacheDirectory != null) {
+            store(key, scriptClass.getName(), classes);
+        }
+        return scriptClass;
+    }
+
+    /**
+     * Load the script class from the cache directory. An entry with a missing class file is deleted and treated as
+     * a miss so that the script is compiled and stored again.
+     *
+     * @param key The cache key.
+     * @return The script class or {@code null} if it is not in the cache directory or the entry is incomplete.
+     * @throws IOException If there was a problem reading the cache entry.
+     */
+    private Class<?> load(final String key) throws IOException {
+        if (cacheDirectory == null) {
+            return null;
+        }
+        final File entry = new File(cacheDirectory, key);
+        final File metadataFile = new File(entry, METADATA_FILE);
+        if (!metadataFile.isFile()) {
+            return null;
+        }
+        final Properties metadata = new Properties();
+        final InputStream in = new FileInputStream(metadataFile);
+        try {
+            metadata.load(in);
+        } finally {
+            in.close();
+        }
+        final Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        for (final String name : metadata.getProperty(CLASSES_KEY, "").split(",")) {
+            final File classFile = new File(entry, name + ".class");
+            if (!classFile.isFile()) {
+                FileUtils.deleteDirectory(entry);
+                return null;
+            }
+            final InputStream classIn = new FileInputStream(classFile);
+            try {
+                classes.put(name, IOUtil.toByteArray(classIn));
+            } finally {
+                classIn.close();
+            }
+        }
+        try {
+            return new ByteCodeClassLoader(parentClassLoader, classes)
+                    .loadClass(metadata.getProperty(SCRIPT_CLASS_KEY));
+        } catch (final ClassNotFoundException e) {
+            FileUtils.deleteDirectory(entry);
+            return null;
+        }
+    }
+
+    /**
+     * Persist the byte code in the cache directory. The entry is assembled in a temporary directory and then
+     * renamed so that concurrent builds sharing the cache directory never see a partial entry.
+     *
+     * @param key             The cache key.
+     * @param scriptClassName The name of the script class.
+     * @param classes         The byte code of the compiled classes.
+     * @throws IOException If there was a problem writing the cache entry.
+     */
+    private void store(final String key, final String scriptClassName, final Map<String, byte[]> classes)
+            throws IOException {
+        final File temp = new File(cacheDirectory, key + "." + System.nanoTime() + ".tmp");
+        temp.mkdirs();
+        try {
+            final StringBuilder names = new StringBuilder();
+            for (final Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                if (names.length() > 0) {
+                    names.append(',');
+                }
+                names.append(entry.getKey());
+                final OutputStream out = new FileOutputStream(new File(temp, entry.getKey() + ".class"));
+                try {
+                    out.write(entry.getValue());
+                } finally {
+                    out.close();
+                }
+            }
+            final Properties metadata = new Properties();
+            metadata.setProperty(SCRIPT_CLASS_KEY, scriptClassName);
+            metadata.setProperty(CLASSES_KEY, names.toString());
+            final OutputStream out = new FileOutputStream(new File(temp, METADATA_FILE));
+            try {
+                metadata.store(out, "Compiled Groovy script");
+            } finally {
+                out.close();
+            }
+            temp.renameTo(new File(cacheDirectory, key));
+        } finally {
+            if (temp.exists()) {
+                FileUtils.deleteDirectory(temp);
+            }
+        }
+    }
+
+    /**
+     * A class loader that defines the compiled classes of a script from their byte code.
+     */
+    private static class ByteCodeClassLoader extends ClassLoader {
+
+        /**
+         * The byte code of the compiled classes.
+         */
+        private final Map<String, byte[]> classes;
+
+        /**
+         * Initialise the class loader.
+         *
+         * @param parent  The parent class loader.
+         * @param classes The byte code of the compiled classes.
+         */
+        ByteCodeClassLoader(final ClassLoader parent, final Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        /**
+         * Define a compiled class.
+         *
+         * @param name The class name.
+         * @return The class.
+         * @throws ClassNotFoundException If the class is not one of the compiled classes.
+         */
+        @Override
+        protected Class<?> findClass(final String name) throws ClassNotFoundException {
+            final byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+        /**
+         * Find the script class among the compiled classes.
+         *
+         * @return The top-level class that extends {@link Script}.
+         * @throws IOException If the compiled classes do not include a script class.
+         */
+        Class<?> findScriptClass() throws IOException {
+            for (final String name : classes.keySet()) {
+                try {
+                    final Class<?> type = loadClass(name);
+                    if (Script.class.isAssignableFrom(type) && type.getEnclosingClass() == null) {
+                        return type;
+                    }
+                } catch (final ClassNotFoundException e) {
+                    throw new IOException("Unable to load compiled script class: " + name, e);
+                }
+            }
+            throw new IOException("The compiled script does not contain a script class");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon.processors;
+
+import groovy.lang.Script;
+import spoon.reflect.Factory;
+import spoon.reflect.declaration.CtElement;
+
+/**
+ * The base class for Groovy scripts used as processors. It exposes the element being processed and the factory as
+ * typed properties so that the scripts can be compiled statically.
+ * <p/>
+ * A script can restrict the elements it is invoked for by declaring a {@code processes()} method that returns the
+ * element type, or a list of element types, and a {@code isToBeProcessed(CtElement)} method that filters the
+ * elements of those types. For example:
+ * <pre>
+ * import spoon.reflect.declaration.*
+ *
+ * def processes() { CtMethod }
+ *
+ * boolean isToBeProcessed(CtElement element) { element.simpleName.startsWith("get") }
+ *
+ * println element.signature
+ * </pre>
+ * The elements are filtered before the script is run so the script is not entered for irrelevant elements.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public abstract class SpoonScript extends Script {
+
+    /**
+     * The element being processed.
+     */
+    private CtElement element;
+    /**
+     * The factory that owns the model.
+     */
+    private Factory factory;
+
+    /**
+     * Get the element being processed.
+     *
+     * @return The element.
+     */
+    public CtElement getElement() {
+        return element;
+    }
+
+    /**
+     * Set the element being processed.
+     *
+     * @param element The element.
+     */
+    public void setElement(final CtElement element) {
+        this.element = element;
+    }
+
+    /**
+     * Get the factory that owns the model.
+     *
+     * @return The factory.
+     */
+    public Factory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Set the factory that owns the model.
+     *
+     * @param factory The factory.
+     */
+    public void setFactory(final Factory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Get the types of element processed by the script. Scripts override this method to narrow the processed
+     * element types.
+     *
+     * @return A {@link CtElement} subclass, a collection or array of {@link CtElement} subclasses or {@code null}
+     *         if the script processes every element.
+     */
+    public Object processes() {
+        return null;
+    }
+
+    /**
+     * Check whether an element is to be processed. Scripts override this method to filter the elements before the
+     * script is run.
+     *
+     * @param element The element.
+     * @return {@code true} if the element is to be processed.
+     */
+    public boolean isToBeProcessed(final CtElement element) {
+        return true;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package spoon.support.builder;
+
+import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
+import spoon.reflect.Factory;
+
+import java.util.List;
+
+/**
+ * The compilation units produced by the JDT compiler for a set of source files. The units are kept after the first
+ * model has been built so that further models can be built for other factories without parsing and resolving the
+ * source files again.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class CompiledModel {
+
+    /**
+     * The compiler that produced the compilation units.
+     */
+    private final JDTCompiler compiler;
+    /**
+     * The compilation units.
+     */
+    private final CompilationUnitDeclaration[] units;
+    /**
+     * The source files that were compiled.
+     */
+    private final List<CtFile> files;
+
+    /**
+     * Initialise the compiled model.
+     *
+     * @param compiler The compiler that produced the compilation units.
+     * @param units    The compilation units.
+     * @param files    The source files that were compiled.
+     */
+    CompiledModel(final JDTCompiler compiler, final CompilationUnitDeclaration[] units, final List<CtFile> files) {
+        this.compiler = compiler;
+        this.units = units;
+        this.files = files;
+    }
+
+    /**
+     * Build the Spoon model of the source files for another factory.
+     *
+     * @param factory The factory.
+     */
+    public void buildModel(final Factory factory) {
+        compiler.buildModel(factory, units, files);
+    }
+
+    /**
+     * Release the compilation units and the compiler state once no more models will be built.
+     */
+    public void release() {
+        compiler.release(units);
+    }
+}
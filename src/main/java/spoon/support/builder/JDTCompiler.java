@@ -23,8 +23,14 @@ import java.io.PrintWriter;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jdt.core.compiler.CategorizedProblem;
 import org.eclipse.jdt.internal.compiler.CompilationResult;
@@ -34,11 +40,21 @@ import org.eclipse.jdt.internal.compiler.IProblemFactory;
 import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
 import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
 import org.eclipse.jdt.internal.compiler.batch.Main;
+import org.eclipse.jdt.internal.compiler.env.ICompilationUnit;
 import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
+import org.eclipse.jdt.internal.compiler.parser.Parser;
+import org.eclipse.jdt.internal.compiler.problem.ProblemReporter;
 import org.eclipse.jdt.internal.compiler.util.Util;
 
 import spoon.reflect.Factory;
 
+import com.btmatthews.maven.plugins.spoon.BuildMetrics;
+import com.btmatthews.maven.plugins.spoon.BuildScheduler;
+import com.btmatthews.maven.plugins.spoon.CompilerDiagnostics;
+import com.btmatthews.maven.plugins.spoon.MavenEnvironment;
+import com.btmatthews.maven.plugins.spoon.Tasks;
+import com.btmatthews.maven.plugins.spoon.TooManyErrorsException;
+
 public class JDTCompiler extends Main implements ICompilerRequestor {
 
     class Compiler extends org.eclipse.jdt.internal.compiler.Compiler {
@@ -56,32 +72,154 @@ public class JDTCompiler extends Main implements ICompilerRequestor {
                 CompilationUnit[] sourceUnits) {
             CompilationUnitDeclaration unit = null;
             int i = 0;
+            int sourceCount = sourceUnits.length;
             // build and record parsed units
             beginToCompile(sourceUnits);
+            // the method bodies of the units being compiled do not depend
+            // on the lookup environment so they can be parsed in parallel
+            int parsedBodies = 0;
+            if (executor != null && methodBodies) {
+                BuildMetrics.Sample start = metrics.sample();
+                getMethodBodies(this.unitsToProcess, sourceCount);
+                metrics.record("jdt.methodBodies", start, sourceCount);
+                parsedBodies = sourceCount;
+            }
             // process all units (some more could be injected in the loop by
             // the lookup environment)
             for (; i < this.totalUnits; i++) {
                 unit = unitsToProcess[i];
-                this.parser.getMethodBodies(unit);
+                // units injected by the lookup environment to resolve types
+                // from the source path only need their type bindings, which
+                // are completed when they are injected, so their method
+                // bodies are never parsed or resolved
+                if (i >= sourceCount)
+                    continue;
+                BuildMetrics.Sample sample = metrics.sample();
+                // the units are diet parsed so when the processors only
+                // inspect signatures the bodies are never parsed, resolved
+                // or analysed
+                if (!methodBodies)
+                    unit.ignoreMethodBodies = true;
+                else if (i >= parsedBodies) {
+                    this.parser.getMethodBodies(unit);
+                    sample = metrics.record("jdt.methodBodies", sample, 1);
+                }
 
                 // fault in fields & methods
                 if (unit.scope != null)
                     unit.scope.faultInTypes();
+                sample = metrics.record("jdt.faultInTypes", sample, 1);
                 // verify inherited methods
                 if (unit.scope != null)
                     unit.scope
                             .verifyMethods(lookupEnvironment.methodVerifier());
+                sample = metrics.record("jdt.verifyMethods", sample, 1);
                 // type checking
                 unit.resolve();
+                sample = metrics.record("jdt.resolve", sample, 1);
                 // flow analysis
-                unit.analyseCode();
+                if (methodBodies && flowAnalysis) {
+                    long analysisStart = System.nanoTime();
+                    unit.analyseCode();
+                    analysisTime += System.nanoTime() - analysisStart;
+                    metrics.record("jdt.analyseCode", sample, 1);
+                }
 
                 requestor.acceptResult(unit.compilationResult.tagAsAccepted());
             }
-            return this.unitsToProcess;
+            CompilationUnitDeclaration[] result = new CompilationUnitDeclaration[this.totalUnits];
+            System.arraycopy(this.unitsToProcess, 0, result, 0, this.totalUnits);
+            return result;
+        }
+
+        /*
+         * Parse the source units (in parallel when there is a worker pool)
+         * and then build the type bindings serially in the original order.
+         * Binding resolution is left serial because the lookup environment
+         * is not thread-safe.
+         */
+        @Override
+        protected void internalBeginToCompile(final ICompilationUnit[] sourceUnits,
+                                              final int maxUnits) {
+            final CompilationUnitDeclaration[] parsedUnits = new CompilationUnitDeclaration[maxUnits];
+            final int firstUnit = this.totalUnits;
+            BuildMetrics.Sample sample = metrics.sample();
+            invokeAll("jdt.parse", new ParserTask() {
+                void parse(Parser parser, int i) {
+                    CompilationResult unitResult = new CompilationResult(
+                            sourceUnits[i], i, maxUnits,
+                            options.maxProblemsPerUnit);
+                    if (methodBodies && firstUnit + i < parseThreshold)
+                        parsedUnits[i] = parser.parse(sourceUnits[i], unitResult);
+                    else
+                        parsedUnits[i] = parser.dietParse(sourceUnits[i], unitResult);
+                }
+            }, maxUnits);
+            sample = metrics.record("jdt.parse", sample, maxUnits);
+            for (int i = 0; i < maxUnits; i++) {
+                CompilationUnitDeclaration parsedUnit = parsedUnits[i];
+                try {
+                    this.lookupEnvironment.buildTypeBindings(parsedUnit, null);
+                    addCompilationUnit(sourceUnits[i], parsedUnit);
+                    if (parsedUnit.currentPackage != null)
+                        parsedUnit.compilationResult
+                                .recordPackageName(parsedUnit.currentPackage.tokens);
+                } finally {
+                    sourceUnits[i] = null;
+                }
+            }
+            this.lookupEnvironment.completeTypeBindings();
+            metrics.record("jdt.bindings", sample, maxUnits);
+        }
+
+        /*
+         * Parse the method bodies of the units in parallel.
+         */
+        void getMethodBodies(final CompilationUnitDeclaration[] units, int count) {
+            invokeAll("jdt.methodBodies", new ParserTask() {
+                void parse(Parser parser, int i) {
+                    parser.getMethodBodies(units[i]);
+                }
+            }, count);
+        }
+
+        /*
+         * Run a parser task over count units on the worker pool. Each worker
+         * has its own parser and problem reporter since neither is
+         * thread-safe. Without a worker pool the units are parsed by the
+         * compiler's own parser.
+         */
+        void invokeAll(final String phase, final ParserTask task, final int count) {
+            if (executor == null) {
+                for (int i = 0; i < count; i++)
+                    task.parse(this.parser, i);
+                return;
+            }
+            final AtomicInteger next = new AtomicInteger();
+            List<Callable<Object>> workers = new ArrayList<Callable<Object>>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(new Callable<Object>() {
+                    public Object call() {
+                        BuildMetrics.Sample start = metrics.sample();
+                        Parser parser = new Parser(new ProblemReporter(
+                                problemReporter.policy, options,
+                                problemReporter.problemFactory),
+                                options.parseLiteralExpressionsAsConstants);
+                        for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement())
+                            task.parse(parser, i);
+                        metrics.recordWork(phase, start);
+                        return null;
+                    }
+                });
+            }
+            Tasks.invokeAll(executor, workers);
         }
     }
 
+    abstract static class ParserTask {
+        abstract void parse(Parser parser, int i);
+    }
+
     public static int JAVA_COMPLIANCE = 6;
 
     boolean success=true;
@@ -89,26 +227,97 @@ public class JDTCompiler extends Main implements ICompilerRequestor {
     public boolean compileSrc(Factory f, List<CtFile> files)
             throws Exception {
         if(files.isEmpty()) return true;
+        CompilationUnitDeclaration[] units = null;
+        boolean retained = false;
+        try {
+            units = compile(f, files);
+            buildModel(f, units, files);
+            // the units are kept if the model will be built again for other
+            // factories and released once the last model has been built
+            if (f.getEnvironment() instanceof MavenEnvironment
+                    && ((MavenEnvironment) f.getEnvironment()).isRetainCompiledModel()) {
+                ((MavenEnvironment) f.getEnvironment()).setCompiledModel(
+                        new CompiledModel(this, units, files));
+                retained = true;
+            }
+        } finally {
+            // also released when too many errors stop the build so that
+            // the shared jar files are not left open
+            if (!retained)
+                release(units == null ? new CompilationUnitDeclaration[0] : units);
+        }
+        return success;
+    }
+
+    /*
+     * Configure the compiler and compile the files into JDT compilation
+     * units without building the Spoon model.
+     */
+    public CompilationUnitDeclaration[] compile(Factory f, List<CtFile> files)
+            throws Exception {
 //		long t=System.currentTimeMillis();
         // Build input
+        boolean javadoc = true;
+        if (f.getEnvironment() instanceof MavenEnvironment) {
+            MavenEnvironment env = (MavenEnvironment) f.getEnvironment();
+            methodBodies = env.isMethodBodies();
+            flowAnalysis = env.isFlowAnalysis();
+            javadoc = env.isJavadoc();
+        } else {
+            methodBodies = true;
+            flowAnalysis = true;
+        }
         List<String> args = new ArrayList<String>();
         args.add("-1." + JAVA_COMPLIANCE);
-        args.add("-preserveAllLocals");
-        args.add("-enableJavadoc");
+        // the optional phases are only enabled when a processor needs them
+        if (flowAnalysis)
+            args.add("-preserveAllLocals");
+        if (javadoc)
+            args.add("-enableJavadoc");
         args.add("-noExit");
-        ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
-
-        if(currentClassLoader instanceof URLClassLoader){
-            URL[] urls = ((URLClassLoader) currentClassLoader).getURLs();
-            if(urls!=null && urls.length>0){
-                String classpath = ".";
-                for (URL url : urls) {
-                    classpath+=File.pathSeparator+url.getFile();
+        Set<String> elements = new LinkedHashSet<String>();
+        elements.add(".");
+        if (f.getEnvironment() instanceof MavenEnvironment
+                && ((MavenEnvironment) f.getEnvironment()).getClasspath() != null) {
+            // the class path is passed explicitly so that the plugin's own
+            // class loader never needs to contain the project dependencies
+            elements.addAll(((MavenEnvironment) f.getEnvironment()).getClasspath());
+        } else {
+            ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
+            if (currentClassLoader instanceof URLClassLoader) {
+                URL[] urls = ((URLClassLoader) currentClassLoader).getURLs();
+                if (urls != null) {
+                    for (URL url : urls) {
+                        elements.add(url.getFile());
+                    }
                 }
-                if(classpath!=null){
-                    args.add("-cp");
-                    args.add(classpath);
+            }
+        }
+        if (elements.size() > 1) {
+            StringBuilder classpath = new StringBuilder();
+            for (String element : elements) {
+                if (classpath.length() > 0)
+                    classpath.append(File.pathSeparatorChar);
+                classpath.append(element);
+            }
+            args.add("-cp");
+            args.add(classpath.toString());
+        }
+
+        // types referenced from outside the input files are resolved
+        // from the source path but not built into the model
+        if (f.getEnvironment() instanceof MavenEnvironment) {
+            List<File> folders = ((MavenEnvironment) f.getEnvironment())
+                    .getSourcePathFolders();
+            if (!folders.isEmpty()) {
+                StringBuilder sourcepath = new StringBuilder();
+                for (File folder : folders) {
+                    if (sourcepath.length() > 0)
+                        sourcepath.append(File.pathSeparatorChar);
+                    sourcepath.append(folder.getAbsolutePath());
                 }
+                args.add("-sourcepath");
+                args.add(sourcepath.toString());
             }
         }
 
@@ -119,21 +328,51 @@ public class JDTCompiler extends Main implements ICompilerRequestor {
 //				new PrintWriter(System.err));
         configure(args.toArray(new String[0]));
 //		f.getEnvironment().debugMessage("compiling src: "+files);
+        analysisTime = 0;
         CompilationUnitDeclaration[] units = getUnits(files,f);
 //		f.getEnvironment().debugMessage("got units in "+(System.currentTimeMillis()-t)+" ms");
+        // the cost of flow analysis is reported even when metrics are off
+        if (f.getEnvironment() instanceof MavenEnvironment)
+            ((MavenEnvironment) f.getEnvironment()).addAnalysisTime(analysisTime);
+        return units;
+    }
 
+    /*
+     * Build the Spoon model from the compilation units of the files.
+     */
+    public void buildModel(Factory f, CompilationUnitDeclaration[] units,
+                           List<CtFile> files) {
         JDTTreeBuilder builder = new JDTTreeBuilder(f);
 
+        Set<String> paths = new HashSet<String>();
+        for (CtFile file : files) {
+            paths.add(file.getPath());
+        }
+
+        BuildMetrics.Sample start = metrics.sample();
+        int traversed = 0;
         for (CompilationUnitDeclaration unit : units) {
+            // skip units injected by the lookup environment
+            if (unit == null || !paths.contains(new String(unit.getFileName())))
+                continue;
+            traversed++;
             try {
 //				t=System.currentTimeMillis();
                 unit.traverse(builder, unit.scope);
 //				f.getEnvironment().debugMessage("built unit "+new String(unit.getMainTypeName())+" in "+(System.currentTimeMillis()-t)+" ms");
             } catch (Exception e) {
-                e.printStackTrace();
+                if (printProblems) {
+                    e.printStackTrace();
+                } else {
+                    diagnostics.addError(new String(unit.getFileName()), 0,
+                            "Unable to build the model: " + e);
+                    success = false;
+                    if (maxErrors > 0 && diagnostics.getErrorCount() >= maxErrors)
+                        throw new TooManyErrorsException(maxErrors);
+                }
             }
         }
-        return success;
+        metrics.record("jdt.traverse", start, traversed);
     }
 
     public boolean compileTemplate(Factory f, List<CtFile> streams)
@@ -151,21 +390,57 @@ public class JDTCompiler extends Main implements ICompilerRequestor {
 //		JDTCompiler compiler = new JDTCompiler(new PrintWriter(System.out),
 //				new PrintWriter(System.err));
         configure(args.toArray(new String[0]));
+        // templates are always built with their method bodies
+        methodBodies = true;
+        flowAnalysis = true;
 
-        CompilationUnitDeclaration[] units = getUnits(streams,f);
+        CompilationUnitDeclaration[] units = null;
+        try {
+            units = getUnits(streams,f);
 
-        JDTTreeBuilder builder = new JDTTreeBuilder(f);
-        builder.template = true;
-        for (CompilationUnitDeclaration unit : units) {
-            unit.traverse(builder, unit.scope);
+            JDTTreeBuilder builder = new JDTTreeBuilder(f);
+            builder.template = true;
+            for (CompilationUnitDeclaration unit : units) {
+                unit.traverse(builder, unit.scope);
+            }
+        } finally {
+            release(units == null ? new CompilationUnitDeclaration[0] : units);
         }
         return success;
     }
 
+    /*
+     * Release the JDT state once the Spoon model has been built so that
+     * the ASTs, scopes and lookup environment are not retained through
+     * processing and output.
+     */
+    public void release(CompilationUnitDeclaration[] units) {
+        for (int i = 0; i < units.length; i++) {
+            if (units[i] != null)
+                units[i].cleanUp();
+            units[i] = null;
+        }
+        if (batchCompiler != null) {
+            INameEnvironment nameEnvironment = batchCompiler.lookupEnvironment.nameEnvironment;
+            batchCompiler.reset();
+            // an environment set by the caller is left for the caller to clean up
+            if (nameEnvironment != null && nameEnvironment != this.environment)
+                nameEnvironment.cleanup();
+            batchCompiler = null;
+        }
+        this.checkedClasspaths = null;
+    }
+
     Compiler batchCompiler;
 
     PrintWriter out;
 
+    int threads = 1;
+
+    ExecutorService executor;
+
+    BuildMetrics metrics = BuildMetrics.DISABLED;
+
     public JDTCompiler(PrintWriter outWriter, PrintWriter errWriter) {
         super(outWriter, errWriter, false);
     }
@@ -179,18 +454,41 @@ public class JDTCompiler extends Main implements ICompilerRequestor {
      */
     public CompilationUnit[] getCompilationUnits(List<CtFile> streams)
             throws Exception {
+        if (executor != null) {
+            List<Callable<CompilationUnit>> readers = new ArrayList<Callable<CompilationUnit>>();
+            for (final CtFile stream : streams) {
+                readers.add(new Callable<CompilationUnit>() {
+                    public CompilationUnit call() throws Exception {
+                        BuildMetrics.Sample start = metrics.sample();
+                        try {
+                            return getCompilationUnit(stream);
+                        } finally {
+                            metrics.recordWork("jdt.read", start);
+                        }
+                    }
+                });
+            }
+            return Tasks.invokeAll(executor, readers).toArray(new CompilationUnit[streams.size()]);
+        }
         CompilationUnit[] units = new CompilationUnit[streams.size()];
         int i = 0;
         for (CtFile stream : streams) {
-            InputStream in = stream.getContent();
-            units[i] = new CompilationUnit(Util.getInputStreamAsCharArray(in,
-                    -1, null), stream.getPath(), null);
-            in.close();
+            units[i] = getCompilationUnit(stream);
             i++;
         }
         return units;
     }
 
+    CompilationUnit getCompilationUnit(CtFile stream) throws Exception {
+        InputStream in = stream.getContent();
+        try {
+            return new CompilationUnit(Util.getInputStreamAsCharArray(in,
+                    -1, null), stream.getPath(), null);
+        } finally {
+            in.close();
+        }
+    }
+
     INameEnvironment environment=null;
 
     public void setEnvironment(INameEnvironment environment) {
@@ -201,15 +499,57 @@ public class JDTCompiler extends Main implements ICompilerRequestor {
             throws Exception {
         this.startTime = System.currentTimeMillis();
         INameEnvironment environment = this.environment;
+        // share the opened jar files with the other compilations in the
+        // build session instead of calling getLibraryAccess()
         if(environment == null)
-            environment = getLibraryAccess();
-        this.batchCompiler = new Compiler(environment, getHandlingPolicy(),
-                this.options, this, getProblemFactory(), this.out, false);
-        return batchCompiler.compileUnits(getCompilationUnits(streams));
+            environment = new SharedNameEnvironment(this.checkedClasspaths);
+        if (f.getEnvironment() instanceof MavenEnvironment) {
+            threads = ((MavenEnvironment) f.getEnvironment()).getCompilerThreads();
+            metrics = ((MavenEnvironment) f.getEnvironment()).getMetrics();
+            diagnostics = ((MavenEnvironment) f.getEnvironment()).getDiagnostics();
+            retainProblems = ((MavenEnvironment) f.getEnvironment()).isRetainProblems();
+            maxErrors = ((MavenEnvironment) f.getEnvironment()).getMaxErrors();
+            // problems are logged by the diagnostics
+            printProblems = false;
+        }
+        // the workers are shared with every other compilation in the build session
+        if (threads > 1)
+            executor = BuildScheduler.getExecutor();
+        try {
+            try {
+                this.batchCompiler = new Compiler(environment, getHandlingPolicy(),
+                        this.options, this, getProblemFactory(), this.out, false);
+            } catch (RuntimeException e) {
+                // release() cannot reach an environment without a compiler
+                if (environment != this.environment)
+                    environment.cleanup();
+                throw e;
+            }
+            BuildMetrics.Sample start = metrics.sample();
+            CompilationUnit[] sourceUnits = getCompilationUnits(streams);
+            metrics.record("jdt.read", start, sourceUnits.length);
+            return batchCompiler.compileUnits(sourceUnits);
+        } finally {
+            executor = null;
+        }
     }
 
     List<CategorizedProblem[]> probs;
 
+    CompilerDiagnostics diagnostics = new CompilerDiagnostics();
+
+    boolean retainProblems = true;
+
+    boolean printProblems = true;
+
+    int maxErrors;
+
+    boolean methodBodies = true;
+
+    boolean flowAnalysis = true;
+
+    long analysisTime;
+
     public List<CategorizedProblem[]> getProbs() {
         if (probs == null) {
             probs = new ArrayList<CategorizedProblem[]>();
@@ -219,10 +559,29 @@ public class JDTCompiler extends Main implements ICompilerRequestor {
     }
 
     public void acceptResult(CompilationResult result) {
+        CategorizedProblem[] problems = result.getProblems();
+        if (problems != null) {
+            for (CategorizedProblem problem : problems) {
+                if (problem.isError())
+                    diagnostics.addError(new String(problem.getOriginatingFileName()),
+                            problem.getSourceLineNumber(), problem.getMessage());
+                else if (problem.isWarning())
+                    diagnostics.addWarning(new String(problem.getOriginatingFileName()),
+                            problem.getSourceLineNumber(), problem.getMessage());
+            }
+        }
         if (result.hasErrors()) {
-            System.err.println(result);
-            getProbs().add(result.problems);
+            if (printProblems)
+                System.err.println(result);
+            // keeping every problem is optional because the problems hold
+            // on to the compilation results until the compiler is discarded
+            if (retainProblems)
+                getProbs().add(result.problems);
             success=false;
+            // stop compiling as soon as the limit is reached rather than
+            // resolving and building the rest of the units
+            if (maxErrors > 0 && diagnostics.getErrorCount() >= maxErrors)
+                throw new TooManyErrorsException(maxErrors);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package spoon.support.builder;
+
+import org.eclipse.jdt.core.compiler.CharOperation;
+import org.eclipse.jdt.internal.compiler.batch.ClasspathJar;
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
+import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
+import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A name environment that resolves types from the class path in the same way as the JDT {@link FileSystem} but
+ * shares the opened jar files with every other compilation in the build session. A jar file that is rebuilt during
+ * the session is opened again. Each shared jar file counts the compilations using it and is closed once it is
+ * no longer used if it has been replaced or the build session has ended.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class SharedNameEnvironment implements INameEnvironment {
+
+    /**
+     * The opened jar files shared by all compilations in the build session.
+     */
+    private static final Map<String, SharedJar> JARS = new HashMap<String, SharedJar>();
+    /**
+     * Indicates whether the build session has ended so jar files are closed as soon as they are no longer used.
+     */
+    private static boolean closeWhenUnused;
+    /**
+     * The class path entries in the order they are searched.
+     */
+    private final FileSystem.Classpath[] classpaths;
+    /**
+     * The shared jar file used for each class path entry or {@code null} if the entry belongs to this compilation.
+     */
+    private final SharedJar[] shared;
+    /**
+     * Indicates whether the shared jar files have been released.
+     */
+    private boolean released;
+
+    /**
+     * Initialise the name environment replacing each jar file on the class path with the shared instance.
+     *
+     * @param classpaths The class path entries configured by the batch compiler.
+     * @throws IOException If there was a problem opening a class path entry.
+     */
+    public SharedNameEnvironment(final FileSystem.Classpath[] classpaths) throws IOException {
+        this.classpaths = new FileSystem.Classpath[classpaths.length];
+        this.shared = new SharedJar[classpaths.length];
+        try {
+            for (int i = 0; i < classpaths.length; i++) {
+                if (classpaths[i] instanceof ClasspathJar) {
+                    this.shared[i] = acquire((ClasspathJar) classpaths[i]);
+                    this.classpaths[i] = this.shared[i].jar;
+                } else {
+                    this.classpaths[i] = classpaths[i];
+                    this.classpaths[i].initialize();
+                }
+            }
+        } catch (final IOException e) {
+            for (final SharedJar sharedJar : shared) {
+                if (sharedJar != null) {
+                    release(sharedJar);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get the shared instance of a jar file opening and indexing it if this is the first time it has been used
+     * or it has changed since it was last opened. Each call must be matched by a call to {@link #release(SharedJar)}.
+     *
+     * @param jar The jar file class path entry configured by the batch compiler.
+     * @return The shared jar file.
+     * @throws IOException If there was a problem opening the jar file.
+     */
+    private static SharedJar acquire(final ClasspathJar jar) throws IOException {
+        final File file = new File(jar.getPath());
+        synchronized (JARS) {
+            closeWhenUnused = false;
+            SharedJar sharedJar = JARS.get(file.getAbsolutePath());
+            if (sharedJar == null
+                    || sharedJar.lastModified != file.lastModified() || sharedJar.length != file.length()) {
+                if (sharedJar != null) {
+                    // a stale entry that another compilation is still using is closed when it is released
+                    sharedJar.stale = true;
+                    if (sharedJar.references == 0) {
+                        sharedJar.jar.reset();
+                    }
+                }
+                jar.initialize();
+                // build the package index now because it is not thread-safe to build it lazily
+                jar.isPackage("");
+                sharedJar = new SharedJar(jar, file.lastModified(), file.length());
+                JARS.put(file.getAbsolutePath(), sharedJar);
+            }
+            sharedJar.references++;
+            return sharedJar;
+        }
+    }
+
+    /**
+     * Release a shared jar file obtained from {@link #acquire(ClasspathJar)} closing it if it is no longer used and
+     * it has been replaced or the build session has ended.
+     *
+     * @param sharedJar The shared jar file.
+     */
+    private static void release(final SharedJar sharedJar) {
+        synchronized (JARS) {
+            sharedJar.references--;
+            if (sharedJar.references == 0 && (sharedJar.stale || closeWhenUnused)) {
+                if (JARS.get(sharedJar.path) == sharedJar) {
+                    JARS.remove(sharedJar.path);
+                }
+                sharedJar.jar.reset();
+            }
+        }
+    }
+
+    /**
+     * Close the shared jar files at the end of the build session. Jar files still used by a compilation are closed
+     * when they are released unless another compilation starts first.
+     */
+    public static void closeAll() {
+        synchronized (JARS) {
+            closeWhenUnused = true;
+            final Iterator<SharedJar> iterator = JARS.values().iterator();
+            while (iterator.hasNext()) {
+                final SharedJar sharedJar = iterator.next();
+                if (sharedJar.references == 0) {
+                    iterator.remove();
+                    sharedJar.jar.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * Find a type.
+     *
+     * @param compoundTypeName The qualified type name.
+     * @return The answer or {@code null} if the type could not be found.
+     */
+    public NameEnvironmentAnswer findType(final char[][] compoundTypeName) {
+        if (compoundTypeName == null) {
+            return null;
+        }
+        return findClass(new String(CharOperation.concatWith(compoundTypeName, '/')),
+                compoundTypeName[compoundTypeName.length - 1]);
+    }
+
+    /**
+     * Find a type.
+     *
+     * @param typeName    The simple type name.
+     * @param packageName The package name.
+     * @return The answer or {@code null} if the type could not be found.
+     */
+    public NameEnvironmentAnswer findType(final char[] typeName, final char[][] packageName) {
+        if (typeName == null) {
+            return null;
+        }
+        return findClass(new String(CharOperation.concatWith(packageName, typeName, '/')), typeName);
+    }
+
+    /**
+     * Check whether a package exists.
+     *
+     * @param parentPackageName The parent package name.
+     * @param packageName       The package name.
+     * @return {@code true} if the package exists.
+     */
+    public boolean isPackage(final char[][] parentPackageName, final char[] packageName) {
+        final String qualifiedPackageName = new String(CharOperation.concatWith(parentPackageName, packageName, '/'));
+        final String platformPackageName = qualifiedPackageName.replace('/', File.separatorChar);
+        for (final FileSystem.Classpath classpath : classpaths) {
+            if (classpath.isPackage(classpath instanceof ClasspathJar ? qualifiedPackageName : platformPackageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reset the class path entries that belong to this compilation and release the shared jar files.
+     */
+    public void cleanup() {
+        for (int i = 0; i < classpaths.length; i++) {
+            if (shared[i] == null) {
+                classpaths[i].reset();
+            } else if (!released) {
+                release(shared[i]);
+            }
+        }
+        released = true;
+    }
+
+    /**
+     * Find a class or source file on the class path.
+     *
+     * @param qualifiedTypeName The qualified type name using {@code /} as the separator.
+     * @param typeName          The simple type name.
+     * @return The answer or {@code null} if the type could not be found.
+     */
+    private NameEnvironmentAnswer findClass(final String qualifiedTypeName, final char[] typeName) {
+        final String qualifiedBinaryFileName = qualifiedTypeName + ".class";
+        final String qualifiedPackageName = qualifiedTypeName.length() == typeName.length ? ""
+                : qualifiedBinaryFileName.substring(0, qualifiedTypeName.length() - typeName.length - 1);
+        final String platformPackageName = qualifiedPackageName.replace('/', File.separatorChar);
+        final String platformBinaryFileName = qualifiedBinaryFileName.replace('/', File.separatorChar);
+        NameEnvironmentAnswer suggestedAnswer = null;
+        for (final FileSystem.Classpath classpath : classpaths) {
+            final NameEnvironmentAnswer answer;
+            if (classpath instanceof ClasspathJar) {
+                answer = classpath.findClass(typeName, qualifiedPackageName, qualifiedBinaryFileName, false);
+            } else {
+                answer = classpath.findClass(typeName, platformPackageName, platformBinaryFileName, false);
+            }
+            if (answer != null) {
+                if (!answer.ignoreIfBetter()) {
+                    if (answer.isBetter(suggestedAnswer)) {
+                        return answer;
+                    }
+                } else if (answer.isBetter(suggestedAnswer)) {
+                    suggestedAnswer = answer;
+                }
+            }
+        }
+        return suggestedAnswer;
+    }
+
+    /**
+     * A jar file shared by all compilations in the build session.
+     */
+    private static class SharedJar {
+
+        /**
+         * The absolute path of the jar file.
+         */
+        private final String path;
+        /**
+         * The opened jar file.
+         */
+        private final ClasspathJar jar;
+        /**
+         * The modification time of the jar file when it was opened.
+         */
+        private final long lastModified;
+        /**
+         * The length of the jar file when it was opened.
+         */
+        private final long length;
+        /**
+         * The number of compilations using the jar file.
+         */
+        private int references;
+        /**
+         * Indicates whether the jar file has been replaced because it changed since it was opened.
+         */
+        private boolean stale;
+
+        /**
+         * Initialise the shared jar file.
+         *
+         * @param jar          The opened jar file.
+         * @param lastModified The modification time of the jar file when it was opened.
+         * @param length       The length of the jar file when it was opened.
+         */
+        SharedJar(final ClasspathJar jar, final long lastModified, final long length) {
+            this.path = new File(jar.getPath()).getAbsolutePath();
+            this.jar = jar;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link BuildCache}.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class BuildCacheTest {
+
+    /**
+     * Creates the cache and output directories.
+     */
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    /**
+     * The cache being tested.
+     */
+    private BuildCache cache;
+    /**
+     * The output directory.
+     */
+    private File outputDirectory;
+
+    /**
+     * Create the cache and the output directory.
+     *
+     * @throws Exception If there was a problem creating the directories.
+     */
+    @Before
+    public void setUp() throws Exception {
+        cache = new BuildCache(temporaryFolder.newFolder("cache"), new SystemStreamLog());
+        outputDirectory = temporaryFolder.newFolder("output");
+    }
+
+    /**
+     * Verify that a key that has not been stored is a miss and the output directory is left alone.
+     *
+     * @throws Exception If there was a problem accessing the cache.
+     */
+    @Test
+    public void restoreMiss() throws Exception {
+        write("example/A.java", "class A {}");
+        assertFalse(cache.restore("key", outputDirectory));
+        assertTrue(new File(outputDirectory, "example/A.java").isFile());
+    }
+
+    /**
+     * Verify that only the listed outputs are stored and that they replace the contents of the output directory
+     * when they are restored.
+     *
+     * @throws Exception If there was a problem accessing the cache.
+     */
+    @Test
+    public void storeAndRestore() throws Exception {
+        write("example/A.java", "class A {}");
+        write("example/B.java", "class B {}");
+        write("example/Stale.java", "class Stale {}");
+        cache.store("key", outputDirectory, Arrays.asList("example/A.java", "example/B.java"), 100);
+
+        FileUtils.cleanDirectory(outputDirectory);
+        write("example/Other.java", "class Other {}");
+        assertTrue(cache.restore("key", outputDirectory));
+        assertEquals("class A {}", read("example/A.java"));
+        assertEquals("class B {}", read("example/B.java"));
+        assertFalse(new File(outputDirectory, "example/Stale.java").exists());
+        assertFalse(new File(outputDirectory, "example/Other.java").exists());
+    }
+
+    /**
+     * Verify that an existing entry is not replaced.
+     *
+     * @throws Exception If there was a problem accessing the cache.
+     */
+    @Test
+    public void storeExistingKey() throws Exception {
+        write("example/A.java", "class A {}");
+        cache.store("key", outputDirectory, Collections.singletonList("example/A.java"), 100);
+        write("example/A.java", "class A { int changed; }");
+        cache.store("key", outputDirectory, Collections.singletonList("example/A.java"), 100);
+
+        assertTrue(cache.restore("key", outputDirectory));
+        assertEquals("class A {}", read("example/A.java"));
+    }
+
+    /**
+     * Write a file in the output directory.
+     *
+     * @param path     The path of the file relative to the output directory.
+     * @param contents The contents of the file.
+     * @throws Exception If there was a problem writing the file.
+     */
+    private void write(final String path, final String contents) throws Exception {
+        final File file = new File(outputDirectory, path);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getAbsolutePath(), "UTF-8", contents);
+    }
+
+    /**
+     * Read a file in the output directory.
+     *
+     * @param path The path of the file relative to the output directory.
+     * @return The contents of the file.
+     * @throws Exception If there was a problem reading the file.
+     */
+    private String read(final String path) throws Exception {
+        return FileUtils.fileRead(new File(outputDirectory, path), "UTF-8");
+    }
+}
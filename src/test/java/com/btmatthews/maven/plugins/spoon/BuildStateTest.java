@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link BuildState}.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class BuildStateTest {
+
+    /**
+     * Creates the state files.
+     */
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Verify that the build state is the same after it has been saved and loaded.
+     *
+     * @throws Exception If there was a problem saving or loading the build state.
+     */
+    @Test
+    public void saveAndLoad() throws Exception {
+        final BuildState state = new BuildState("fingerprint");
+        state.setDigest("/src/A.java", "a1");
+        state.setDigest("/src/B.java", "b1");
+        state.addOutput("/src/A.java", "example/A.java");
+        state.addOutput("/src/A.java", "example/A$Inner.java");
+        state.setSourcePathDigest("/src/C.java", "c1");
+        final File stateFile = new File(temporaryFolder.getRoot(), "state/spoon-state.properties");
+        state.save(stateFile);
+
+        final BuildState loaded = BuildState.load(stateFile);
+        assertEquals("fingerprint", loaded.getFingerprint());
+        assertEquals(new HashSet<String>(Arrays.asList("/src/A.java", "/src/B.java")), loaded.getSources());
+        assertEquals("a1", loaded.getDigest("/src/A.java"));
+        assertEquals("b1", loaded.getDigest("/src/B.java"));
+        assertEquals(Arrays.asList("example/A.java", "example/A$Inner.java"), loaded.getOutputs("/src/A.java"));
+        assertEquals(Collections.<String>emptyList(), loaded.getOutputs("/src/B.java"));
+        assertEquals(Collections.singletonMap("/src/C.java", "c1"), loaded.getSourcePathDigests());
+    }
+
+    /**
+     * Verify that output file names containing the characters that are commonly used as separators are loaded
+     * unchanged.
+     *
+     * @throws Exception If there was a problem saving or loading the build state.
+     */
+    @Test
+    public void outputsWithSeparatorCharacters() throws Exception {
+        final BuildState state = new BuildState("fingerprint");
+        state.addOutput("/src/A,B.java", "example/A,B.java");
+        state.addOutput("/src/A,B.java", "example/A;B:C.java");
+        final File stateFile = new File(temporaryFolder.getRoot(), "spoon-state.properties");
+        state.save(stateFile);
+
+        assertEquals(Arrays.asList("example/A,B.java", "example/A;B:C.java"),
+                BuildState.load(stateFile).getOutputs("/src/A,B.java"));
+    }
+
+    /**
+     * Verify that an output file is only recorded once for a source file.
+     */
+    @Test
+    public void outputsAreNotDuplicated() {
+        final BuildState state = new BuildState("fingerprint");
+        state.addOutput("/src/A.java", "example/A.java");
+        state.addOutput("/src/A.java", "example/A.java");
+        assertEquals(Collections.singletonList("example/A.java"), state.getOutputs("/src/A.java"));
+    }
+
+    /**
+     * Verify that a source file that was not recorded has no digest or outputs.
+     */
+    @Test
+    public void unknownSource() {
+        final BuildState state = new BuildState("fingerprint");
+        assertNull(state.getDigest("/src/A.java"));
+        assertTrue(state.getOutputs("/src/A.java").isEmpty());
+    }
+
+    /**
+     * Verify that nothing is loaded if the state file does not exist.
+     *
+     * @throws Exception If there was a problem loading the build state.
+     */
+    @Test
+    public void loadMissingFile() throws Exception {
+        assertNull(BuildState.load(new File(temporaryFolder.getRoot(), "missing.properties")));
+    }
+
+    /**
+     * Verify that nothing is loaded if the state file does not have a fingerprint.
+     *
+     * @throws Exception If there was a problem writing or loading the state file.
+     */
+    @Test
+    public void loadWithoutFingerprint() throws Exception {
+        final File stateFile = temporaryFolder.newFile("spoon-state.properties");
+        FileUtils.fileWrite(stateFile.getAbsolutePath(), "UTF-8", "source./src/A.java=a1\n");
+        assertNull(BuildState.load(stateFile));
+    }
+}
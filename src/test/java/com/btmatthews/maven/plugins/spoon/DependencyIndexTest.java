@@ -0,0 +1,277 @@
+/*
+ * Copyright 2013 Brian Matthews
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.btmatthews.maven.plugins.spoon;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link DependencyIndex}. The indexes are loaded from fixture files written in the format used by
+ * {@link DependencyIndex#save(File)}.
+ *
+ * @author <a href="mailto:brian@btmatthews.com">Brian Matthews</a>
+ * @since 1.0.1
+ */
+public class DependencyIndexTest {
+
+    /**
+     * Creates the index files.
+     */
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    /**
+     * An index in which {@code C.java} references {@code B} and {@code B.java} references {@code A}.
+     */
+    private DependencyIndex index;
+
+    /**
+     * Load the index used by the tests.
+     *
+     * @throws Exception If there was a problem writing or loading the index file.
+     */
+    @Before
+    public void setUp() throws Exception {
+        index = load(
+                "A.java=example.A:java.lang.String",
+                "B.java=example.B:example.A",
+                "C.java=example.C:example.B",
+                "D.java=example.D:");
+    }
+
+    /**
+     * Verify that the source files that indirectly reference a changed source file are dependents.
+     */
+    @Test
+    public void dependentsIncludeIndirectReferences() {
+        assertEquals(set("A.java", "B.java", "C.java"), index.getDependents(Collections.singleton("A.java")));
+    }
+
+    /**
+     * Verify that a source file that is not referenced has no other dependents.
+     */
+    @Test
+    public void unreferencedSourceHasNoDependents() {
+        assertEquals(set("C.java"), index.getDependents(Collections.singleton("C.java")));
+    }
+
+    /**
+     * Verify that a deleted source file that is not in the index is still reported.
+     */
+    @Test
+    public void unknownSourceIsReported() {
+        assertEquals(set("E.java"), index.getDependents(Collections.singleton("E.java")));
+    }
+
+    /**
+     * Verify that a reference cycle does not prevent the dependents from being found.
+     *
+     * @throws Exception If there was a problem writing or loading the index file.
+     */
+    @Test
+    public void cyclesAreFollowedOnce() throws Exception {
+        final DependencyIndex cyclic = load(
+                "A.java=example.A:example.C",
+                "B.java=example.B:example.A",
+                "C.java=example.C:example.B");
+        assertEquals(set("A.java", "B.java", "C.java"), cyclic.getDependents(Collections.singleton("B.java")));
+    }
+
+    /**
+     * Verify that the index is the same after it has been saved and loaded.
+     *
+     * @throws Exception If there was a problem saving or loading the index.
+     */
+    @Test
+    public void saveAndLoad() throws Exception {
+        final File indexFile = new File(temporaryFolder.getRoot(), "state/dependencies.bin");
+        index.save(indexFile);
+        final DependencyIndex loaded = DependencyIndex.load(indexFile);
+        assertEquals(set("A.java", "B.java", "C.java"), loaded.getDependents(Collections.singleton("A.java")));
+        assertEquals(set("D.java"), loaded.getDependents(Collections.singleton("D.java")));
+    }
+
+    /**
+     * Verify that nothing is loaded if the index file does not exist.
+     *
+     * @throws Exception If there was a problem loading the index.
+     */
+    @Test
+    public void loadMissingFile() throws Exception {
+        assertNull(DependencyIndex.load(new File(temporaryFolder.getRoot(), "missing.bin")));
+    }
+
+    /**
+     * Verify that nothing is loaded if the index file was not written by a compatible version of the plugin.
+     *
+     * @throws Exception If there was a problem writing or loading the index file.
+     */
+    @Test
+    public void loadIncompatibleFile() throws Exception {
+        final File indexFile = temporaryFolder.newFile("dependencies.bin");
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile));
+        try {
+            out.writeInt(0);
+            out.writeInt(0);
+        } finally {
+            out.close();
+        }
+        assertNull(DependencyIndex.load(indexFile));
+    }
+
+    /**
+     * Verify that the entries copied from a previous index are used to find dependents.
+     */
+    @Test
+    public void copyAndAddAll() {
+        final DependencyIndex current = new DependencyIndex();
+        current.copy(index, "A.java");
+        current.copy(index, "B.java");
+        assertEquals(set("A.java", "B.java"), current.getDependents(Collections.singleton("A.java")));
+        current.addAll(index);
+        assertEquals(set("A.java", "B.java", "C.java"), current.getDependents(Collections.singleton("A.java")));
+    }
+
+    /**
+     * Verify that a new type is matched by simple name against unresolved references and against references to
+     * types of the same simple name in other packages.
+     *
+     * @throws Exception If there was a problem writing or loading the index files.
+     */
+    @Test
+    public void newTypesAreMatchedBySimpleName() throws Exception {
+        final DependencyIndex previous = load(
+                "A.java=example.A:Missing",
+                "B.java=example.B:other.Helper",
+                "C.java=example.C:example.A");
+        final DependencyIndex processed = load(
+                "Missing.java=example.Missing:",
+                "Helper.java=example.Helper:");
+        assertEquals(set("A.java", "B.java"), previous.getSourcesReferencingNewTypes(processed));
+    }
+
+    /**
+     * Verify that the types that already existed are not treated as new types.
+     *
+     * @throws Exception If there was a problem writing or loading the index file.
+     */
+    @Test
+    public void existingTypesAreNotNew() throws Exception {
+        final DependencyIndex processed = load("A.java=example.A:java.lang.String");
+        assertEquals(Collections.<String>emptySet(), index.getSourcesReferencingNewTypes(processed));
+    }
+
+    /**
+     * Verify that the source files that were processed again are not reported.
+     *
+     * @throws Exception If there was a problem writing or loading the index files.
+     */
+    @Test
+    public void processedSourcesAreNotReported() throws Exception {
+        final DependencyIndex previous = load("A.java=example.A:Missing");
+        final DependencyIndex processed = load("A.java=example.A:example.Missing", "Missing.java=example.Missing:");
+        assertEquals(Collections.<String>emptySet(), previous.getSourcesReferencingNewTypes(processed));
+    }
+
+    /**
+     * Write an index file and load it. Each entry has the form {@code source=declared:referenced} where the
+     * declared and referenced types are separated by spaces.
+     *
+     * @param entries The entry of each source file.
+     * @return The loaded index.
+     * @throws Exception If there was a problem writing or loading the index file.
+     */
+    private DependencyIndex load(final String... entries) throws Exception {
+        final List<String> names = new ArrayList<String>();
+        final List<int[][]> sources = new ArrayList<int[][]>();
+        for (final String entry : entries) {
+            final int equals = entry.indexOf('=');
+            final int colon = entry.indexOf(':', equals);
+            sources.add(new int[][]{
+                    ids(names, entry.substring(0, equals)),
+                    ids(names, entry.substring(equals + 1, colon)),
+                    ids(names, entry.substring(colon + 1))});
+        }
+        final File indexFile = File.createTempFile("dependencies", ".bin", temporaryFolder.getRoot());
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile));
+        try {
+            out.writeInt(0x53504449);
+            out.writeInt(1);
+            out.writeInt(names.size());
+            for (final String name : names) {
+                out.writeUTF(name);
+            }
+            out.writeInt(sources.size());
+            for (final int[][] source : sources) {
+                out.writeInt(source[0][0]);
+                for (int i = 1; i < source.length; i++) {
+                    out.writeInt(source[i].length);
+                    for (final int id : source[i]) {
+                        out.writeInt(id);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return DependencyIndex.load(indexFile);
+    }
+
+    /**
+     * Get the positions of space separated names in the table of names, adding them if necessary.
+     *
+     * @param names The table of names.
+     * @param value The space separated names.
+     * @return The positions of the names.
+     */
+    private static int[] ids(final List<String> names, final String value) {
+        final String trimmed = value.trim();
+        final String[] parts = trimmed.length() == 0 ? new String[0] : trimmed.split(" +");
+        final int[] ids = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            if (!names.contains(parts[i])) {
+                names.add(parts[i]);
+            }
+            ids[i] = names.indexOf(parts[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Create a set of source file paths.
+     *
+     * @param sources The source file paths.
+     * @return The set.
+     */
+    private static Set<String> set(final String... sources) {
+        return new HashSet<String>(Arrays.asList(sources));
+    }
+}